@@ -0,0 +1,99 @@
+package checks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import info.malignantshadow.api.commands.Command;
+import info.malignantshadow.api.commands.CommandManager;
+import info.malignantshadow.api.commands.CommandSender;
+import info.malignantshadow.api.commands.DispatchJournal;
+import info.malignantshadow.api.commands.DispatchResult;
+import info.malignantshadow.api.commands.DispatchResult.Status;
+
+/**
+ * Checks that dispatches which did not run a command to the end (because an interceptor stopped it, or it timed out) are reported as
+ * such, and are not recorded in the {@link DispatchJournal}, so replaying a journal only runs commands that succeeded. Exits with status
+ * {@code 1} if any check fails.
+ * 
+ * <pre>
+ * java checks.DispatchOutcomes
+ * </pre>
+ */
+public class DispatchOutcomes {
+	
+	private static final CommandSender QUIET = new CommandSender() {
+		
+		@Override
+		public void print(String message) {
+		}
+		
+		@Override
+		public void printErr(String message) {
+		}
+		
+	};
+	
+	private static int _failures;
+	
+	public static void main(String[] args) throws Exception {
+		Path file = Files.createTempFile("dispatch-outcomes", ".journal");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			DispatchJournal journal = new DispatchJournal(file);
+			CountDownLatch finished = new CountDownLatch(1);
+			CommandManager manager = new CommandManager()
+				.withInterceptor((context, next) -> {
+					if (!context.getCommandPrefix().equals("deny"))
+						next.handleCommand(context);
+				})
+				.push(new Command("allow", "Runs").withHandler(c -> {}))
+				.push(new Command("deny", "Stopped by an interceptor").withHandler(c -> {}))
+				.push(new Command("late", "Finishes after its deadline").withTimeout(50, TimeUnit.MILLISECONDS).withHandler(c -> {
+					// ignores the interrupt, and succeeds after the caller was told it timed out
+					long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+					while (System.nanoTime() < end)
+						Thread.yield();
+					finished.countDown();
+				}))
+				.withExecutor(executor)
+				.withJournal(journal);
+			
+			DispatchResult denied = manager.dispatchForResult(QUIET, "deny");
+			check("a denied dispatch is INTERCEPTED", denied.getStatus() == Status.INTERCEPTED, denied.getStatus());
+			check("a denied dispatch is not a success", !denied.isSuccess(), denied.getStatus());
+			
+			DispatchResult allowed = manager.dispatchForResult(QUIET, "allow");
+			check("an allowed dispatch succeeds", allowed.isSuccess(), allowed.getStatus());
+			
+			DispatchResult late = manager.dispatchAsync(QUIET, "late").get();
+			check("a dispatch past its deadline is TIMED_OUT", late.getStatus() == Status.TIMED_OUT, late.getStatus());
+			finished.await();
+			executor.shutdown();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+			
+			journal.close();
+			List<String> journaled = new ArrayList<String>();
+			DispatchJournal.read(file, e -> journaled.add(e.getCommand()));
+			check("only the allowed dispatch is journaled, not the denied or timed out ones", journaled.size() == 1 && journaled.get(0).equals("allow"), journaled);
+		} finally {
+			executor.shutdownNow();
+			Files.deleteIfExists(file);
+		}
+		
+		if (_failures > 0)
+			System.exit(1);
+	}
+	
+	private static void check(String what, boolean passed, Object actual) {
+		System.out.println((passed ? "ok      " : "FAILED  ") + what + (passed ? "" : " (got " + actual + ")"));
+		if (!passed)
+			_failures++;
+	}
+	
+}
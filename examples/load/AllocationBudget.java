@@ -0,0 +1,175 @@
+package load;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import info.malignantshadow.api.commands.Command;
+import info.malignantshadow.api.commands.CommandManager;
+import info.malignantshadow.api.commands.CommandSender;
+import info.malignantshadow.api.commands.DispatchResult;
+import info.malignantshadow.api.commands.DispatchResult.Status;
+import info.malignantshadow.api.util.arguments.Argument;
+import info.malignantshadow.api.util.arguments.ArgumentTypes;
+
+/**
+ * Checks how many bytes a dispatch allocates on each of the common paths against a budget, and exits with status {@code 1} if any path
+ * allocates more than its budget, so a change that adds a copy or a concatenation to the hot path is caught before it is released.
+ * 
+ * <pre>
+ * java load.AllocationBudget [--report] [--budget PATH=BYTES]...
+ *   --report               print the measurements without failing
+ *   --budget PATH=BYTES    change the budget of a path
+ * </pre>
+ * 
+ * Each path is dispatched until warmed up, and then the bytes the current thread allocated over many dispatches are read from
+ * {@code com.sun.management.ThreadMXBean} and averaged. The budgets are per dispatch, and leave some room over what the paths allocated
+ * when they were set, since the argument types and the JIT can change the exact numbers.
+ * 
+ * <p>
+ * The invalid-argument path dispatches the same command as the nested path, with a value its argument type rejects, so most of what it
+ * allocates is spent parsing the value in the argument types. Its budget is therefore given over what the nested path allocated in the
+ * same run, which leaves out the cost of the argument types and only checks what a failed validation adds. {@code --budget} changes
+ * that allowance for such a path.
+ * </p>
+ */
+public class AllocationBudget {
+	
+	private static final int WARMUP = 50000;
+	private static final int MEASURED = 20000;
+	
+	private static final CommandSender QUIET = new CommandSender() {
+		
+		@Override
+		public void print(String message) {
+		}
+		
+		@Override
+		public void printErr(String message) {
+		}
+		
+	};
+	
+	public static void main(String[] args) {
+		Map<String, Path> paths = new LinkedHashMap<String, Path>();
+		paths.put("flat", new Path("give 5 cookies", Status.SUCCESS, 1100));
+		paths.put("nested", new Path("cookie eat 5", Status.SUCCESS, 1250));
+		paths.put("help", new Path("help", Status.SUCCESS, 6500));
+		paths.put("not-found", new Path("missing 5", Status.NOT_FOUND, 1100));
+		paths.put("invalid-argument", new Path("cookie eat abc", Status.INVALID_ARGUMENT, "nested", 1150));
+		paths.put("missing-argument", new Path("cookie eat", Status.NOT_ENOUGH_ARGUMENTS, 1900));
+		
+		boolean report = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--report")) {
+				report = true;
+				continue;
+			}
+			
+			int eq = i + 1 < args.length && args[i].equals("--budget") ? args[i + 1].indexOf('=') : -1;
+			Path path = eq > 0 ? paths.get(args[i + 1].substring(0, eq)) : null;
+			if (path == null) {
+				System.err.println("Usage: AllocationBudget [--report] [--budget " + String.join("|", paths.keySet()) + "=BYTES]...");
+				System.exit(2);
+			}
+			path._budget = Long.parseLong(args[++i].substring(eq + 1));
+		}
+		
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)
+			|| !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+			System.err.println("This JVM cannot measure the memory allocated by a thread");
+			System.exit(2);
+		}
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		allocations.setThreadAllocatedMemoryEnabled(true);
+		
+		CommandManager manager = buildTree();
+		long overhead = measure(allocations, null, null);
+		boolean failed = false;
+		System.out.printf("%-18s %10s %10s%n", "path", "bytes", "budget");
+		for (Map.Entry<String, Path> e : paths.entrySet()) {
+			Path path = e.getValue();
+			path._bytes = measure(allocations, manager, path) - overhead;
+			long budget = path._base == null ? path._budget : paths.get(path._base)._bytes + path._budget;
+			String problem = path._problem != null ? path._problem : path._bytes > budget ? "OVER BUDGET" : "";
+			failed |= !problem.isEmpty();
+			System.out.printf("%-18s %10d %10d  %s%n", e.getKey(), path._bytes, budget, problem);
+		}
+		
+		if (failed && !report)
+			System.exit(1);
+	}
+	
+	private static CommandManager buildTree() {
+		return new CommandManager()
+			.push(new Command("give", "Give something")
+				.withArg(new Argument("amount", "The amount to give", true)
+					.withAcceptedTypes(ArgumentTypes.INT))
+				.withArg(new Argument("what", "What to give (Default: nothing)", false)
+					.withAcceptedTypes(ArgumentTypes.STRING)
+					.thatMayBeNull())
+				.withHandler(c -> c.get("amount")))
+			.push(new Command("cookie", "Commands related to cookies")
+				.withSubCommands(new CommandManager()
+					.push(new Command("eat", "Eat some cookies")
+						.withArg(new Argument("amount", "The amount of cookies to eat", true)
+							.withAcceptedTypes(ArgumentTypes.INT))
+						.withHandler(c -> c.get("amount")))
+					.push(new Command("bake", "Bake some cookies")
+						.withArg(new Argument("amount", "The amount of cookies to bake", true)
+							.withAcceptedTypes(ArgumentTypes.INT))
+						.withHandler(c -> c.get("amount")))))
+			.withHelpCommand();
+	}
+	
+	/*
+	 * The average bytes allocated per dispatch of a path, or per iteration of an empty loop if the path is null.
+	 */
+	private static long measure(com.sun.management.ThreadMXBean allocations, CommandManager manager, Path path) {
+		long id = Thread.currentThread().getId();
+		for (int i = 0; i < WARMUP; i++)
+			dispatch(manager, path);
+		
+		long before = allocations.getThreadAllocatedBytes(id);
+		for (int i = 0; i < MEASURED; i++)
+			dispatch(manager, path);
+		long after = allocations.getThreadAllocatedBytes(id);
+		return (after - before) / MEASURED;
+	}
+	
+	private static void dispatch(CommandManager manager, Path path) {
+		if (path == null)
+			return;
+		
+		DispatchResult result = manager.dispatchForResult(QUIET, path._line);
+		if (result.getStatus() != path._expected && path._problem == null)
+			path._problem = "expected " + path._expected + " but got " + result.getStatus();
+	}
+	
+	private static final class Path {
+		
+		private final String _line;
+		private final Status _expected;
+		private final String _base;
+		private long _budget;
+		private long _bytes;
+		private String _problem;
+		
+		private Path(String line, Status expected, long budget) {
+			this(line, expected, null, budget);
+		}
+		
+		/*
+		 * A path whose budget is given over what another path, measured before it, allocated.
+		 */
+		private Path(String line, Status expected, String base, long budget) {
+			_line = line;
+			_expected = expected;
+			_base = base;
+			_budget = budget;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,422 @@
+package load;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import info.malignantshadow.api.commands.Command;
+import info.malignantshadow.api.commands.CommandManager;
+import info.malignantshadow.api.commands.CommandSender;
+import info.malignantshadow.api.commands.DispatchResult;
+import info.malignantshadow.api.commands.DispatchResult.Status;
+import info.malignantshadow.api.util.arguments.Argument;
+import info.malignantshadow.api.util.arguments.ArgumentTypes;
+
+/**
+ * Dispatches a mix of command lines to a {@link CommandManager} from many threads at once, and reports the throughput, the latency
+ * percentiles of single dispatches, and the garbage collections of each run.
+ * 
+ * <pre>
+ * java load.LoadHarness [options]
+ *   --threads N        threads dispatching at once (default: the amount of processors)
+ *   --virtual          use virtual threads (Java 21 or later)
+ *   --ops N            dispatches per thread per run (default: 200000)
+ *   --runs N           measured runs (default: 5)
+ *   --warmup N         runs that are not reported (default: 2)
+ *   --commands N       root commands in the generated tree (default: 50)
+ *   --subcommands N    sub-commands of each root command (default: 10)
+ *   --mix V,I,N        weights of valid, invalid and not found lines (default: 80,15,5)
+ *   --traffic FILE     replay the lines of a file instead of generated ones
+ *   --alias-tables     resolve commands with alias tables
+ *   --seed N           seed for the generated lines (default: 1)
+ * </pre>
+ * 
+ * A traffic file has one command line per line, as they were typed; empty lines and lines starting with {@code #} are skipped. Each
+ * thread replays the file in order, starting at a different line, and starts over at the end. The generated tree still answers the
+ * lines, so recorded traffic should use the {@code cmdN subN amount [note]} commands, or the harness should be changed to build the
+ * tree the traffic was recorded against.
+ * 
+ * <p>
+ * Every thread counts its latencies in a histogram of a few thousand buckets, which are added together after each run, so the memory the
+ * harness needs does not grow with {@code --ops}, and many threads can be run at once. The percentiles are the upper ends of their
+ * buckets, which are within about 3% of the real ones.
+ * </p>
+ */
+public class LoadHarness {
+	
+	private static final Status[] STATUSES = Status.values();
+	
+	private int _threads = Runtime.getRuntime().availableProcessors();
+	private boolean _virtual;
+	private int _ops = 200000;
+	private int _runs = 5;
+	private int _warmup = 2;
+	private int _commands = 50;
+	private int _subCommands = 10;
+	private int[] _mix = { 80, 15, 5 };
+	private String _traffic;
+	private boolean _aliasTables;
+	private long _seed = 1;
+	
+	public static void main(String[] args) throws Exception {
+		LoadHarness harness = new LoadHarness();
+		try {
+			harness.parseOptions(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+		}
+		harness.run();
+	}
+	
+	private void parseOptions(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String opt = args[i];
+			switch (opt) {
+				case "--virtual":
+					try {
+						Thread.class.getMethod("ofVirtual");
+					} catch (NoSuchMethodException e) {
+						throw new IllegalArgumentException("--virtual needs Java 21 or later");
+					}
+					_virtual = true;
+					continue;
+				case "--alias-tables":
+					_aliasTables = true;
+					continue;
+			}
+			
+			if (i + 1 == args.length)
+				throw new IllegalArgumentException("Missing value for " + opt);
+			String value = args[++i];
+			switch (opt) {
+				case "--threads":
+					_threads = positive(opt, value);
+					break;
+				case "--ops":
+					_ops = positive(opt, value);
+					break;
+				case "--runs":
+					_runs = positive(opt, value);
+					break;
+				case "--warmup":
+					_warmup = Math.max(0, Integer.parseInt(value));
+					break;
+				case "--commands":
+					_commands = positive(opt, value);
+					break;
+				case "--subcommands":
+					_subCommands = positive(opt, value);
+					break;
+				case "--mix":
+					String[] parts = value.split(",");
+					if (parts.length != 3)
+						throw new IllegalArgumentException("--mix needs three weights: valid,invalid,notfound");
+					for (int j = 0; j < 3; j++)
+						_mix[j] = Integer.parseInt(parts[j].trim());
+					if (_mix[0] + _mix[1] + _mix[2] <= 0)
+						throw new IllegalArgumentException("--mix needs at least one weight above 0");
+					break;
+				case "--traffic":
+					_traffic = value;
+					break;
+				case "--seed":
+					_seed = Long.parseLong(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + opt);
+			}
+		}
+	}
+	
+	private static int positive(String opt, String value) {
+		int n = Integer.parseInt(value);
+		if (n <= 0)
+			throw new IllegalArgumentException(opt + " must be above 0");
+		return n;
+	}
+	
+	private void run() throws Exception {
+		CommandManager manager = buildTree();
+		if (_aliasTables)
+			manager.withAliasTables(true);
+		
+		// the threads share the lines, each starting at a different one
+		String[] lines = _traffic != null ? readTraffic(_traffic) : generate(new Random(_seed), Math.min(_ops, 1 << 16));
+		
+		System.out.printf("%d %s threads x %d dispatches, %d root commands x %d sub-commands, %s%s%n", _threads,
+			_virtual ? "virtual" : "platform", _ops, _commands, _subCommands,
+			_traffic != null ? "traffic from " + _traffic : "mix " + _mix[0] + "/" + _mix[1] + "/" + _mix[2],
+			_aliasTables ? ", alias tables" : "");
+		
+		List<Run> measured = new ArrayList<Run>();
+		for (int r = 0; r < _warmup + _runs; r++) {
+			Run run = runOnce(manager, lines);
+			boolean warmup = r < _warmup;
+			System.out.println((warmup ? "warmup " + (r + 1) : "run " + (r - _warmup + 1)) + ": " + run);
+			if (!warmup)
+				measured.add(run);
+		}
+		
+		double[] throughput = new double[measured.size()];
+		long[] p99 = new long[measured.size()];
+		for (int i = 0; i < measured.size(); i++) {
+			throughput[i] = measured.get(i)._throughput;
+			p99[i] = measured.get(i)._percentiles[3];
+		}
+		Arrays.sort(throughput);
+		Arrays.sort(p99);
+		System.out.printf("median over %d runs: %.0f dispatches/s, p99 %s (throughput %.0f to %.0f)%n", measured.size(),
+			throughput[throughput.length / 2], micros(p99[p99.length / 2]), throughput[0], throughput[throughput.length - 1]);
+	}
+	
+	private CommandManager buildTree() {
+		CommandManager root = new CommandManager();
+		for (int i = 0; i < _commands; i++) {
+			CommandManager subs = new CommandManager();
+			for (int j = 0; j < _subCommands; j++)
+				subs.push(new Command("sub" + j, "Sub-command " + j)
+					.withArg(new Argument("amount", "An amount", true)
+						.withAcceptedTypes(ArgumentTypes.INT))
+					.withArg(new Argument("note", "A note (Default: none)", false)
+						.withAcceptedTypes(ArgumentTypes.STRING)
+						.thatMayBeNull())
+					.withHandler(c -> c.get("amount")));
+			root.push(new Command("cmd" + i, "Command " + i).withSubCommands(subs));
+		}
+		return root;
+	}
+	
+	private String[] generate(Random random, int count) {
+		int total = _mix[0] + _mix[1] + _mix[2];
+		String[] lines = new String[count];
+		for (int i = 0; i < count; i++) {
+			String cmd = "cmd" + random.nextInt(_commands) + " sub" + random.nextInt(_subCommands);
+			int pick = random.nextInt(total);
+			if (pick < _mix[0])
+				lines[i] = cmd + " " + random.nextInt(1000) + (random.nextBoolean() ? " note" + random.nextInt(10) : "");
+			else if (pick < _mix[0] + _mix[1])
+				lines[i] = random.nextBoolean() ? cmd : cmd + " not-a-number"; // not enough arguments, or an invalid one
+			else
+				lines[i] = "missing" + random.nextInt(_commands) + " sub0 1";
+		}
+		return lines;
+	}
+	
+	private static String[] readTraffic(String file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8))
+			if (!line.trim().isEmpty() && !line.startsWith("#"))
+				lines.add(line);
+		if (lines.isEmpty())
+			throw new IOException("No command lines in " + file);
+		return lines.toArray(new String[lines.size()]);
+	}
+	
+	private Run runOnce(CommandManager manager, String[] lines) throws InterruptedException {
+		List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+		long gcCount = 0, gcTime = 0;
+		for (GarbageCollectorMXBean gc : gcs) {
+			gcCount += Math.max(0, gc.getCollectionCount());
+			gcTime += Math.max(0, gc.getCollectionTime());
+		}
+		
+		CountDownLatch start = new CountDownLatch(1);
+		Worker[] workers = new Worker[_threads];
+		Thread[] threads = new Thread[_threads];
+		for (int t = 0; t < _threads; t++) {
+			workers[t] = new Worker(manager, lines, (int) ((long) lines.length * t / _threads), _ops, start);
+			threads[t] = newThread(workers[t], _virtual);
+			threads[t].start();
+		}
+		
+		long began = System.nanoTime();
+		start.countDown();
+		for (Thread t : threads)
+			t.join();
+		long elapsed = System.nanoTime() - began;
+		
+		for (GarbageCollectorMXBean gc : gcs) {
+			gcCount -= Math.max(0, gc.getCollectionCount());
+			gcTime -= Math.max(0, gc.getCollectionTime());
+		}
+		
+		long[] counts = new long[Histogram.BUCKETS];
+		long[] statuses = new long[STATUSES.length];
+		long min = Long.MAX_VALUE, max = 0;
+		for (Worker w : workers) {
+			for (int b = 0; b < counts.length; b++)
+				counts[b] += w._counts[b];
+			for (int s = 0; s < statuses.length; s++)
+				statuses[s] += w._statuses[s];
+			min = Math.min(min, w._min);
+			max = Math.max(max, w._max);
+		}
+		return new Run(counts, (long) _threads * _ops, min, max, statuses, elapsed, -gcCount, -gcTime);
+	}
+	
+	/*
+	 * Virtual threads are looked up reflectively, so the harness still compiles and runs with platform threads on older versions.
+	 */
+	private static Thread newThread(Runnable task, boolean virtual) {
+		if (!virtual)
+			return new Thread(task);
+		
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (Thread) Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class).invoke(builder, task);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Virtual threads need Java 21 or later", e);
+		}
+	}
+	
+	private static String micros(long nanos) {
+		return String.format("%.1fus", nanos / 1000.0);
+	}
+	
+	private static final class Worker implements Runnable {
+		
+		private static final CommandSender QUIET = new CommandSender() {
+			
+			@Override
+			public void print(String message) {
+			}
+			
+			@Override
+			public void printErr(String message) {
+			}
+			
+		};
+		
+		private final CommandManager _manager;
+		private final String[] _lines;
+		private final int _first;
+		private final int _ops;
+		private final CountDownLatch _start;
+		private final int[] _counts;
+		private final long[] _statuses;
+		private long _min = Long.MAX_VALUE;
+		private long _max;
+		
+		private Worker(CommandManager manager, String[] lines, int first, int ops, CountDownLatch start) {
+			_manager = manager;
+			_lines = lines;
+			_first = first;
+			_ops = ops;
+			_start = start;
+			_counts = new int[Histogram.BUCKETS];
+			_statuses = new long[STATUSES.length];
+		}
+		
+		@Override
+		public void run() {
+			try {
+				_start.await();
+			} catch (InterruptedException e) {
+				return;
+			}
+			
+			String[] lines = _lines;
+			int next = _first;
+			long min = Long.MAX_VALUE, max = 0;
+			for (int i = 0; i < _ops; i++) {
+				long began = System.nanoTime();
+				DispatchResult result = _manager.dispatchForResult(QUIET, lines[next]);
+				long latency = System.nanoTime() - began;
+				_counts[Histogram.bucket(latency)]++;
+				_statuses[result.getStatus().ordinal()]++;
+				min = Math.min(min, latency);
+				max = Math.max(max, latency);
+				if (++next == lines.length)
+					next = 0;
+			}
+			_min = min;
+			_max = max;
+		}
+		
+	}
+	
+	private static final class Run {
+		
+		private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 100 };
+		
+		private final long[] _percentiles;
+		private final long[] _statuses;
+		private final double _throughput;
+		private final long _gcCount;
+		private final long _gcTime;
+		
+		private Run(long[] counts, long total, long min, long max, long[] statuses, long elapsed, long gcCount, long gcTime) {
+			_percentiles = new long[PERCENTILES.length + 1];
+			_percentiles[0] = min;
+			int b = 0;
+			long seen = counts[0];
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				long rank = Math.max(1, (long) Math.ceil(total * PERCENTILES[i] / 100));
+				while (seen < rank && b < counts.length - 1)
+					seen += counts[++b];
+				_percentiles[i + 1] = Math.max(min, Math.min(max, Histogram.highest(b)));
+			}
+			_statuses = statuses;
+			_throughput = total * 1e9 / elapsed;
+			_gcCount = gcCount;
+			_gcTime = gcTime;
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(String.format("%.0f dispatches/s, min %s p50 %s p90 %s p99 %s p99.9 %s max %s, %d GCs (%d ms)",
+				_throughput, micros(_percentiles[0]), micros(_percentiles[1]), micros(_percentiles[2]), micros(_percentiles[3]),
+				micros(_percentiles[4]), micros(_percentiles[5]), _gcCount, _gcTime));
+			for (int s = 0; s < _statuses.length; s++)
+				if (_statuses[s] > 0)
+					sb.append(", ").append(STATUSES[s]).append(' ').append(_statuses[s]);
+			return sb.toString();
+		}
+		
+	}
+	
+	/*
+	 * The buckets of the latency histograms. Every latency below 64ns has a bucket of its own; above that, each power of two is split into
+	 * 32 buckets, so a bucket is never more than 1/32 as wide as the latencies in it. Latencies from 2^40ns (about 18 minutes) up share
+	 * the last bucket.
+	 */
+	private static final class Histogram {
+		
+		private static final int BITS = 6;
+		private static final int HALF = 1 << (BITS - 1);
+		private static final long LIMIT = (1L << 40) - 1;
+		private static final int BUCKETS = (40 - BITS + 2) * HALF;
+		
+		private static int bucket(long nanos) {
+			if (nanos < 2 * HALF)
+				return (int) Math.max(0, nanos);
+			
+			nanos = Math.min(nanos, LIMIT);
+			int shift = 64 - Long.numberOfLeadingZeros(nanos) - BITS;
+			return (shift << (BITS - 1)) + (int) (nanos >>> shift);
+		}
+		
+		/*
+		 * The largest latency that goes in a bucket.
+		 */
+		private static long highest(int bucket) {
+			if (bucket < 2 * HALF)
+				return bucket;
+			
+			int shift = (bucket >> (BITS - 1)) - 1;
+			long top = bucket - ((long) shift << (BITS - 1));
+			return ((top + 1) << shift) - 1;
+		}
+		
+	}
+	
+}
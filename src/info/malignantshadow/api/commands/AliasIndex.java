@@ -0,0 +1,143 @@
+package info.malignantshadow.api.commands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The aliases of a manager's commands, sorted case-insensitively, for finding commands by an abbreviation. Every alias that starts with a
+ * given prefix is in one range of the array, which is found with two binary searches; a second array tells, for each alias, where the
+ * next alias of a different command is, so whether the range holds one command or several is known without looking through it.
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ * @see CommandManager#withAbbreviations(boolean)
+ *
+ */
+final class AliasIndex {
+	
+	private final String[] _aliases;
+	private final Command[] _commands;
+	private final int[] _nextOther;
+	private final List<Command> _source;
+	
+	/**
+	 * Index the aliases of some commands.
+	 * 
+	 * @param commands
+	 *            The commands
+	 */
+	AliasIndex(List<Command> commands) {
+		List<Object[]> entries = new ArrayList<Object[]>();
+		for (Command c : commands)
+			for (String alias : c.getAliases(true))
+				entries.add(new Object[] { alias, c });
+		entries.sort((a, b) -> String.CASE_INSENSITIVE_ORDER.compare((String) a[0], (String) b[0]));
+		
+		int size = entries.size();
+		_aliases = new String[size];
+		_commands = new Command[size];
+		for (int i = 0; i < size; i++) {
+			_aliases[i] = (String) entries.get(i)[0];
+			_commands[i] = (Command) entries.get(i)[1];
+		}
+		
+		_nextOther = new int[size];
+		for (int i = size - 1; i >= 0; i--)
+			_nextOther[i] = i + 1 < size && _commands[i + 1] == _commands[i] ? _nextOther[i + 1] : i + 1;
+		_source = commands;
+	}
+	
+	/**
+	 * Get the list of commands this index was made from.
+	 * 
+	 * @return The commands
+	 */
+	List<Command> getSource() {
+		return _source;
+	}
+	
+	/*
+	 * Compare an alias to a prefix, ignoring case: 0 if the alias starts with the prefix, otherwise which side of the prefix's range the
+	 * alias is on. Folds characters the same way as String.CASE_INSENSITIVE_ORDER, which the aliases are sorted by.
+	 */
+	private static int compareToPrefix(String alias, String prefix) {
+		int n = Math.min(alias.length(), prefix.length());
+		for (int i = 0; i < n; i++) {
+			char a = alias.charAt(i), p = prefix.charAt(i);
+			if (a == p)
+				continue;
+			
+			a = Character.toLowerCase(Character.toUpperCase(a));
+			p = Character.toLowerCase(Character.toUpperCase(p));
+			if (a != p)
+				return a - p;
+		}
+		return alias.length() < prefix.length() ? -1 : 0;
+	}
+	
+	/*
+	 * The first alias that is not before the prefix's range (if after is false), or that is after it (if after is true).
+	 */
+	private int search(String prefix, boolean after) {
+		int low = 0, high = _aliases.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compareToPrefix(_aliases[mid], prefix);
+			if (cmp < 0 || (after && cmp == 0))
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	/**
+	 * Find the command with an alias equal to a name, or else the only command with an alias that starts with it. An equal alias is always
+	 * the first alias of the name's range, since shorter aliases are sorted first.
+	 * 
+	 * @param prefix
+	 *            The name or prefix
+	 * @return The command, or {@code null} if no command, or more than one command, has an alias starting with the prefix
+	 */
+	Command find(String prefix) {
+		if (prefix.isEmpty())
+			return null;
+		
+		int from = search(prefix, false);
+		if (from == _aliases.length || compareToPrefix(_aliases[from], prefix) != 0)
+			return null;
+		if (_aliases[from].length() == prefix.length())
+			return _commands[from];
+		
+		int next = _nextOther[from];
+		if (next < _aliases.length && compareToPrefix(_aliases[next], prefix) == 0)
+			return null; // another command also matches
+		return _commands[from];
+	}
+	
+	/**
+	 * Get every command with an alias that starts with a prefix.
+	 * 
+	 * @param prefix
+	 *            The prefix
+	 * @return The commands, in the order of their aliases, without duplicates
+	 */
+	Command[] candidates(String prefix) {
+		if (prefix.isEmpty())
+			return new Command[0];
+		
+		int from = search(prefix, false);
+		int to = search(prefix, true);
+		List<Command> found = new ArrayList<Command>();
+		for (int i = from; i < to; i = _nextOther[i])
+			if (!found.contains(_commands[i]))
+				found.add(_commands[i]);
+		return found.toArray(new Command[found.size()]);
+	}
+	
+	@Override
+	public String toString() {
+		return "AliasIndex" + Arrays.toString(_aliases);
+	}
+	
+}
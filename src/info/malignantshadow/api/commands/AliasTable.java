@@ -0,0 +1,188 @@
+package info.malignantshadow.api.commands;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An open-addressed table of the aliases of a frozen manager, used to resolve commands without the generic lookup. The aliases are keyed
+ * by a case-insensitive hash that is computed once, and each entry points straight at the command and at the table of its sub-commands.
+ * Resolving a command only hashes each label once, compares a single alias in the common case, and copies the arguments once at the end.
+ * Only resolving is done differently: the command is still dispatched by the {@link CommandManager} in the usual way.
+ * 
+ * <p>
+ * Managers that override {@link CommandManager#getCommand(String)} or {@link CommandManager#getCommandInfo(String, String[])} are not
+ * given a table; their commands are looked up with the overriding method instead, so the result is always the same as
+ * {@link CommandManager#getCommandInfo(String, String[])}.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ * @see CommandManager#withAliasTables(boolean)
+ *
+ */
+final class AliasTable {
+	
+	private final CommandManager _manager;
+	private final int _mask;
+	private final int[] _hashes;
+	private final String[] _keys;
+	private final Command[] _commands;
+	private final AliasTable[] _tables;
+	private final CommandGeneration[] _generations;
+	
+	private AliasTable(CommandManager manager, int size) {
+		_manager = manager;
+		_mask = size - 1;
+		_hashes = new int[size];
+		_keys = new String[size];
+		_commands = new Command[size];
+		_tables = new AliasTable[size];
+		_generations = new CommandGeneration[size];
+	}
+	
+	/**
+	 * Build the tables of a manager and the managers below it.
+	 * 
+	 * @param manager
+	 *            The manager, which should be frozen
+	 * @return The table, or {@code null} if the manager looks its commands up itself
+	 */
+	static AliasTable build(CommandManager manager) {
+		if (overridesLookup(manager))
+			return null;
+		
+		List<Command> commands = manager.getCommands();
+		int aliases = 0;
+		for (Command c : commands)
+			aliases += c.getAliases(true).size();
+		
+		int size = 8;
+		while (size < aliases * 2)
+			size <<= 1;
+		
+		AliasTable table = new AliasTable(manager, size);
+		for (Command c : commands) {
+			CommandGeneration generation = c.getGeneration();
+			AliasTable nested = generation == null ? null : build(generation.getManager());
+			for (String alias : c.getAliases(true))
+				table.put(alias, c, nested, generation);
+		}
+		return table;
+	}
+	
+	private static boolean overridesLookup(CommandManager manager) {
+		if (manager.getClass() == CommandManager.class)
+			return false;
+		
+		try {
+			Class<?> type = manager.getClass();
+			return type.getMethod("getCommand", String.class).getDeclaringClass() != CommandManager.class
+				|| type.getMethod("getCommandInfo", String.class, String[].class).getDeclaringClass() != CommandManager.class;
+		} catch (NoSuchMethodException e) {
+			return true;
+		}
+	}
+	
+	/*
+	 * Hash a name the same way for every spelling that String.equalsIgnoreCase() considers equal.
+	 */
+	private static int hash(String s) {
+		int h = 0;
+		for (int i = 0; i < s.length(); i++)
+			h = 31 * h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+		return h ^ (h >>> 16);
+	}
+	
+	private void put(String alias, Command cmd, AliasTable nested, CommandGeneration generation) {
+		int hash = hash(alias);
+		int i = hash & _mask;
+		while (_keys[i] != null) {
+			if (_hashes[i] == hash && _keys[i].equalsIgnoreCase(alias))
+				return; // the first command with an alias wins, like CommandManager.getCommand()
+			i = (i + 1) & _mask;
+		}
+		_hashes[i] = hash;
+		_keys[i] = alias;
+		_commands[i] = cmd;
+		_tables[i] = nested;
+		_generations[i] = generation;
+	}
+	
+	private int slot(String name) {
+		int hash = hash(name);
+		int i = hash & _mask;
+		String key;
+		while ((key = _keys[i]) != null) {
+			if (_hashes[i] == hash && key.equalsIgnoreCase(name))
+				return i;
+			i = (i + 1) & _mask;
+		}
+		return -1;
+	}
+	
+	/*
+	 * Find the slot of a name, or of the command it abbreviates if the manager allows abbreviations.
+	 */
+	private int find(String name) {
+		int i = slot(name);
+		if (i >= 0 || !_manager.allowsAbbreviations())
+			return i;
+		
+		Command cmd = _manager.getCommand(name);
+		return cmd == null ? -1 : slot(cmd.getName());
+	}
+	
+	/**
+	 * Resolve a command and its sub-commands. This gives the same result as {@link CommandManager#getCommandInfo(String, String[])} on
+	 * the manager of this table.
+	 * 
+	 * @param command
+	 *            The root command
+	 * @param args
+	 *            The arguments to the command
+	 * @return The resolved command, or {@code null} if there is no command with the given name
+	 */
+	CommandInfo resolve(String command, String[] args) {
+		int i = find(command);
+		if (i < 0)
+			return null;
+		
+		Command cmd = _commands[i];
+		AliasTable table = _tables[i];
+		CommandGeneration built = _generations[i];
+		CommandGeneration[] generations = null;
+		int used = 0;
+		StringBuilder path = null;
+		CommandGeneration generation;
+		while (used < args.length && (generation = cmd.getGeneration()) != null) {
+			if (generation != built)
+				table = null; // the sub-commands were reloaded after this table was built
+			
+			String label = args[used];
+			Command sub;
+			if (table != null) {
+				int j = table.find(label);
+				if (j < 0)
+					break;
+				sub = table._commands[j];
+				built = table._generations[j];
+				table = table._tables[j];
+			} else {
+				sub = generation.getManager().getCommand(label);
+				if (sub == null)
+					break;
+			}
+			
+			generations = CommandGeneration.add(generations, generation);
+			if (path == null)
+				path = new StringBuilder(command);
+			path.append(' ').append(label);
+			cmd = sub;
+			used++;
+		}
+		
+		if (used == 0)
+			return new CommandInfo(command, cmd, args);
+		return new CommandInfo(path.toString(), cmd, Arrays.copyOfRange(args, used, args.length), generations);
+	}
+	
+}
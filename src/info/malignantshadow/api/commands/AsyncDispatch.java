@@ -0,0 +1,149 @@
+package info.malignantshadow.api.commands;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import info.malignantshadow.api.commands.DispatchResult.Status;
+
+/**
+ * A single invocation of a command handler on an {@link Executor}. If the invocation has a timeout, the context is cancelled and the
+ * worker thread is interrupted once the deadline passes, and the future is completed with a {@link Status#TIMED_OUT TIMED_OUT} result.
+ * The invocation is only journaled if its own result completes the future, so a command the caller was told timed out is never
+ * journaled, even if its handler goes on to finish.
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ *
+ */
+final class AsyncDispatch implements Runnable {
+	
+	private static final ScheduledThreadPoolExecutor TIMER;
+	
+	static {
+		TIMER = new ScheduledThreadPoolExecutor(1, (r) -> {
+			Thread t = new Thread(r, "CommandManager-Timeout");
+			t.setDaemon(true);
+			return t;
+		});
+		TIMER.setRemoveOnCancelPolicy(true);
+	}
+	
+	private final CommandManager _manager;
+	private final DispatchResult _result;
+	private final CommandContext _context;
+	private final long _timeout;
+	private final CompletableFuture<DispatchResult> _future;
+	private ScheduledFuture<?> _timer;
+	private Thread _thread;
+	
+	AsyncDispatch(CommandManager manager, DispatchResult result, CommandContext context, long timeout) {
+		_manager = manager;
+		_result = result;
+		_context = context;
+		_timeout = timeout;
+		_future = new CompletableFuture<DispatchResult>();
+	}
+	
+	CompletableFuture<DispatchResult> getFuture() {
+		return _future;
+	}
+	
+	/**
+	 * Schedule the deadline (if any) and hand this invocation to the executor.
+	 * 
+	 * @param executor
+	 *            The executor to run the handler on
+	 */
+	void start(Executor executor) {
+		scheduleTimeout();
+		try {
+			executor.execute(this);
+		} catch (RejectedExecutionException e) {
+			shed();
+		}
+	}
+	
+	/**
+	 * Schedule the deadline (if any) and queue this invocation in a scheduler lane.
+	 * 
+	 * @param lane
+	 *            The lane to queue this invocation in
+	 * @param policy
+	 *            What to do if the lane is full, or {@code null} to use the lane's policy
+	 */
+	void start(DispatchScheduler.Lane lane, OverflowPolicy policy) {
+		scheduleTimeout();
+		if (!lane.offer(this, policy == null ? lane.getOverflowPolicy() : policy))
+			shed();
+	}
+	
+	private void scheduleTimeout() {
+		if (_timeout > 0)
+			_timer = TIMER.schedule(this::timeout, _timeout, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Complete this invocation with a {@link Status#SHED SHED} result without running it.
+	 */
+	void shed() {
+		_context.release();
+		DispatchResult result = _result.copy(Status.SHED, _context.getCommandPrefix());
+		if (!_future.complete(result))
+			return;
+		
+		cancelTimer();
+		_manager.report(result);
+	}
+	
+	@Override
+	public void run() {
+		// checked while holding the lock, so a timeout either sees this thread to interrupt or has already completed the future
+		synchronized (this) {
+			if (_future.isDone()) {
+				_context.release();
+				return;
+			}
+			_thread = Thread.currentThread();
+		}
+		
+		try {
+			DispatchResult result = _manager.handle(_result, _context);
+			if (_future.complete(result))
+				_manager.report(_manager.journal(result, _context));
+		} catch (Throwable t) {
+			_future.completeExceptionally(t);
+		} finally {
+			synchronized (this) {
+				_thread = null;
+				// don't leak an interrupt meant for this invocation into the next task on this thread
+				Thread.interrupted();
+			}
+			cancelTimer();
+		}
+	}
+	
+	private void timeout() {
+		// the worker may still be writing to _result, so the timed out result is a copy
+		DispatchResult result = _result.copy(Status.TIMED_OUT, _context.getCommandPrefix(), TimeUnit.NANOSECONDS.toMillis(_timeout));
+		if (!_future.complete(result))
+			return;
+		
+		_context.cancel();
+		synchronized (this) {
+			if (_thread != null)
+				_thread.interrupt();
+		}
+		
+		_manager.report(result);
+	}
+	
+	private void cancelTimer() {
+		ScheduledFuture<?> timer = _timer;
+		if (timer != null)
+			timer.cancel(false);
+	}
+	
+}
@@ -0,0 +1,58 @@
+package info.malignantshadow.api.commands;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of equally sized direct {@link ByteBuffer}s. Direct buffers are expensive to allocate and are not freed until they are garbage
+ * collected, so they are reused instead.
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ *
+ */
+final class BufferPool {
+	
+	private final int _size, _max;
+	private final ConcurrentLinkedQueue<ByteBuffer> _free;
+	private final AtomicInteger _pooled;
+	
+	/**
+	 * Construct a new BufferPool.
+	 * 
+	 * @param size
+	 *            The capacity of each buffer
+	 * @param max
+	 *            The maximum amount of free buffers to keep. Buffers released while the pool is full are left to the garbage collector.
+	 */
+	BufferPool(int size, int max) {
+		_size = size;
+		_max = max;
+		_free = new ConcurrentLinkedQueue<ByteBuffer>();
+		_pooled = new AtomicInteger();
+	}
+	
+	int getBufferSize() {
+		return _size;
+	}
+	
+	ByteBuffer acquire() {
+		ByteBuffer buf = _free.poll();
+		if (buf == null)
+			return ByteBuffer.allocateDirect(_size);
+		
+		_pooled.decrementAndGet();
+		return buf;
+	}
+	
+	void release(ByteBuffer buf) {
+		if (_pooled.incrementAndGet() > _max) {
+			_pooled.decrementAndGet();
+			return;
+		}
+		
+		buf.clear();
+		_free.offer(buf);
+	}
+	
+}
@@ -0,0 +1,114 @@
+package info.malignantshadow.api.commands;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Joins concurrent dispatches of a {@link Command#thatCoalesces() coalescing} command that have the same arguments. The first dispatch
+ * (the leader) runs the handler; dispatches that arrive while it is running (followers) wait for it to finish instead of running the
+ * handler themselves. Every message printed by the handler is sent to the leader and all followers as it is printed, and a follower that
+ * joins late is sent the messages it missed first.
+ * 
+ * <p>
+ * If the handler throws an exception, it is thrown in every follower too.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ *
+ */
+final class Coalescer {
+	
+	private ConcurrentHashMap<CommandCache.Key, Flight> _flights;
+	private AtomicLong _coalesced;
+	
+	Coalescer() {
+		_flights = new ConcurrentHashMap<CommandCache.Key, Flight>();
+		_coalesced = new AtomicLong();
+	}
+	
+	long getCoalescedCount() {
+		return _coalesced.get();
+	}
+	
+	void intercept(CommandContext context, Command.Handler next) {
+		CommandCache.Key key = new CommandCache.Key(context, CommandCache.KeyPolicy.ARGUMENTS);
+		CommandSender sender = context.getSender();
+		Flight flight = new Flight(sender);
+		while (true) {
+			Flight current = _flights.putIfAbsent(key, flight);
+			if (current == null)
+				break;
+			if (sender != null && current._output.follow(sender)) {
+				_coalesced.incrementAndGet();
+				current.await(context, sender);
+				return;
+			}
+			if (sender == null && !current.isDone()) {
+				_coalesced.incrementAndGet();
+				current.await(context, null);
+				return;
+			}
+			// the flight finished before it could be joined, and has been removed; try again
+		}
+		
+		context.swapSender(flight._output);
+		try {
+			next.handleCommand(context);
+		} catch (RuntimeException | Error e) {
+			flight._error = e;
+			throw e;
+		} finally {
+			context.swapSender(sender);
+			_flights.remove(key, flight);
+			flight._output.stop();
+			flight._done.countDown();
+		}
+	}
+	
+	private static final class Flight {
+		
+		private final OutputRecorder _output;
+		private final CountDownLatch _done;
+		private volatile Throwable _error;
+		
+		Flight(CommandSender leader) {
+			_output = new OutputRecorder(leader);
+			_done = new CountDownLatch(1);
+		}
+		
+		boolean isDone() {
+			return _done.getCount() == 0;
+		}
+		
+		/*
+		 * Wait for the leader to finish, or for the follower's deadline to pass.
+		 */
+		void await(CommandContext context, CommandSender follower) {
+			try {
+				if (context.hasDeadline()) {
+					if (!_done.await(Math.max(0, context.getTimeRemaining(TimeUnit.NANOSECONDS)), TimeUnit.NANOSECONDS)) {
+						_output.unfollow(follower);
+						context.cancel();
+						return;
+					}
+				} else {
+					_done.await();
+				}
+			} catch (InterruptedException e) {
+				_output.unfollow(follower);
+				Thread.currentThread().interrupt();
+				return;
+			}
+			
+			Throwable error = _error;
+			if (error instanceof RuntimeException)
+				throw (RuntimeException) error;
+			if (error instanceof Error)
+				throw (Error) error;
+		}
+		
+	}
+	
+}
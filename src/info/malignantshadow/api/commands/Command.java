@@ -1,9 +1,10 @@
 package info.malignantshadow.api.commands;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-import info.malignantshadow.api.util.ListUtil;
 import info.malignantshadow.api.util.aliases.Aliasable;
 import info.malignantshadow.api.util.arguments.Argument;
 import info.malignantshadow.api.util.arguments.ArgumentHolder;
@@ -20,10 +21,20 @@ public class Command implements Aliasable, ArgumentHolder {
 	
 	private String _name, _desc;
 	private List<String> _aliases;
-	private Handler _handler;
+	private Handler _handler, _pipeline;
+	private List<Interceptor> _interceptors;
+	private Interceptor[] _inherited;
 	private ArgumentList _args;
-	private CommandManager _nested;
+	private volatile CommandGeneration _generation;
 	private boolean _hidden;
+	private long _timeout, _slowThreshold;
+	private int _priority;
+	private OverflowPolicy _overflow;
+	private CommandCache _cache;
+	private Coalescer _coalescer;
+	private CommandInterner.Names _names;
+	
+	static final Interceptor[] NO_INTERCEPTORS = new Interceptor[0];
 	
 	private static final Handler UNKNOWN_SUBCOMMAND = (context) -> {
 		String[] extra = context.getExtra();
@@ -52,6 +63,8 @@ public class Command implements Aliasable, ArgumentHolder {
 		_name = name;
 		_desc = desc;
 		_aliases = new ArrayList<String>();
+		_interceptors = new ArrayList<Interceptor>();
+		_inherited = NO_INTERCEPTORS;
 		
 		if (aliases != null && aliases.length > 0)
 			for (String s : aliases)
@@ -89,12 +102,20 @@ public class Command implements Aliasable, ArgumentHolder {
 	}
 	
 	/**
-	 * Get the argument list for this command
+	 * Get the argument list for this command. If this command is {@link #isFrozen() frozen}, its arguments may be shared with other
+	 * commands, so this is a copy of them, and changing it does not change the command.
 	 * 
 	 * @return This command's argument list
 	 */
 	@Override
 	public ArgumentList getArguments() {
+		return isFrozen() ? CommandInterner.copy(_args) : _args;
+	}
+	
+	/*
+	 * The arguments of this command, without copying them if it is frozen. They must not be changed.
+	 */
+	ArgumentList arguments() {
 		return _args;
 	}
 	
@@ -106,6 +127,7 @@ public class Command implements Aliasable, ArgumentHolder {
 	 */
 	@Override
 	public Command withArgs(ArgumentList args) {
+		checkNotFrozen();
 		_args = args;
 		return this;
 	}
@@ -118,6 +140,7 @@ public class Command implements Aliasable, ArgumentHolder {
 	 * @return this
 	 */
 	public Command withArg(Argument arg) {
+		checkNotFrozen();
 		_args.add(arg);
 		return this;
 	}
@@ -135,28 +158,36 @@ public class Command implements Aliasable, ArgumentHolder {
 	 * @see ArgumentList#setExtraArgument(String, String, boolean)
 	 */
 	public Command withExtra(String display, String description, boolean required) {
+		checkNotFrozen();
 		_args.setExtraArgument(display, description, required);
 		return this;
 	}
 	
 	/**
-	 * Get the aliases for this command (not including its name).
+	 * Get the aliases for this command (not including its name). If this command is {@link #isFrozen() frozen}, the array is shared and
+	 * must not be modified.
 	 * 
 	 * @return The aliases for this command
 	 */
 	@Override
 	public String[] getAliases() {
-		return getAliases(false).toArray(new String[0]);
+		if (_names != null)
+			return _names._aliases;
+		return _aliases.toArray(new String[_aliases.size()]);
 	}
 	
 	/**
-	 * Get the aliases for this command, optionally including the name of this command.
+	 * Get the aliases for this command, optionally including the name of this command. If this command is {@link #isFrozen() frozen}, the
+	 * list is shared and cannot be modified.
 	 * 
 	 * @param includeName
 	 *            If {@code true}, include this command's name as the first item in the list.
 	 * @return The aliases
 	 */
 	public List<String> getAliases(boolean includeName) {
+		if (_names != null)
+			return includeName ? _names._allList : _names._aliasList;
+		
 		List<String> list = new ArrayList<String>();
 		if (includeName)
 			list.add(_name);
@@ -171,6 +202,7 @@ public class Command implements Aliasable, ArgumentHolder {
 	 *            The alias to add
 	 */
 	public Command withAlias(String alias) {
+		checkNotFrozen();
 		checkAlias(alias);
 		_aliases.add(alias);
 		return this;
@@ -184,7 +216,15 @@ public class Command implements Aliasable, ArgumentHolder {
 	 * @return true if this command has the given alias
 	 */
 	public boolean hasAlias(String alias) {
-		return ListUtil.contains(getAliases(true), (s) -> s.equalsIgnoreCase(alias));
+		if (_names != null)
+			return _names.contains(alias);
+		
+		if (_name.equalsIgnoreCase(alias))
+			return true;
+		for (int i = 0; i < _aliases.size(); i++)
+			if (_aliases.get(i).equalsIgnoreCase(alias))
+				return true;
+		return false;
 	}
 	
 	/**
@@ -193,7 +233,7 @@ public class Command implements Aliasable, ArgumentHolder {
 	 * @return true if this command has any aliases set
 	 */
 	public boolean hasAliases() {
-		return !_aliases.isEmpty();
+		return _names != null ? _names._aliases.length > 0 : !_aliases.isEmpty();
 	}
 	
 	/**
@@ -212,7 +252,7 @@ public class Command implements Aliasable, ArgumentHolder {
 			args = new String[0];
 		
 		// no need to parse arguments if there aren't enough
-		ArgumentList arguments = getArguments();
+		ArgumentList arguments = arguments();
 		int min = arguments.getMinimum();
 		if (args.length < min)
 			return null;
@@ -230,7 +270,9 @@ public class Command implements Aliasable, ArgumentHolder {
 	 * @return this
 	 */
 	public Command withHandler(Handler handler) {
+		checkNotFrozen();
 		_handler = handler;
+		compose(_inherited);
 		return this;
 	}
 	
@@ -262,17 +304,67 @@ public class Command implements Aliasable, ArgumentHolder {
 	 * @return this
 	 */
 	public Command withSubCommands(CommandManager manager) {
-		_nested = manager;
+		checkNotFrozen();
+		publish(manager);
+		compose(_inherited);
 		return this;
 	}
 	
+	/**
+	 * Replace the sub-commands of this command while commands are being dispatched. The new sub-commands are published in one step:
+	 * dispatches that start afterwards only see the new sub-commands, while dispatches that already resolved one of the old sub-commands
+	 * finish running against it. The returned generation can be used to wait for those dispatches to finish.
+	 * 
+	 * <p>
+	 * Unlike {@link #withSubCommands(CommandManager)}, this may be used on a {@link #isFrozen() frozen} command, in which case the new
+	 * manager is frozen before it is published. The {@link CommandManager#withAliasTables(boolean) alias tables} of a manager above it
+	 * resolve the new sub-commands with the regular lookup until they are built again.
+	 * </p>
+	 * 
+	 * @param manager
+	 *            The new sub-commands
+	 * @return The generation that was replaced, or {@code null} if this command had no sub-commands
+	 * @see CommandGeneration#awaitDrain(long, TimeUnit)
+	 */
+	public CommandGeneration reloadSubCommands(CommandManager manager) {
+		if (manager == null)
+			throw new IllegalArgumentException("manager cannot be null");
+		
+		if (isFrozen())
+			manager.freeze();
+		manager.compose(concat(_inherited, _interceptors));
+		return publish(manager);
+	}
+	
+	/*
+	 * Publish a new generation of sub-commands and retire the current one. Synchronized so concurrent reloads get distinct versions and
+	 * every replaced generation is retired exactly once.
+	 */
+	private synchronized CommandGeneration publish(CommandManager manager) {
+		CommandGeneration old = _generation;
+		_generation = manager == null ? null : new CommandGeneration(manager, old == null ? 1 : old.getVersion() + 1);
+		if (old != null)
+			old.retire();
+		return old;
+	}
+	
+	/**
+	 * Get the current generation of this command's sub-commands.
+	 * 
+	 * @return The generation, or {@code null} if this command has no nested command manager
+	 * @see #reloadSubCommands(CommandManager)
+	 */
+	public CommandGeneration getGeneration() {
+		return _generation;
+	}
+	
 	/**
 	 * Does this command have a nested command manager?
 	 * 
 	 * @return true if this command has a nested command manager (i.e. not null)
 	 */
 	public boolean isNested() {
-		return _nested != null;
+		return _generation != null;
 	}
 	
 	/**
@@ -282,7 +374,8 @@ public class Command implements Aliasable, ArgumentHolder {
 	 *         ({@link CommandManager#getCommands() getCommands()} is not empty)
 	 */
 	public boolean hasSubCommands() {
-		return isNested() && !_nested.getCommands().isEmpty();
+		CommandGeneration generation = _generation;
+		return generation != null && !generation.getManager().getCommands().isEmpty();
 	}
 	
 	/**
@@ -291,7 +384,8 @@ public class Command implements Aliasable, ArgumentHolder {
 	 * @return this command's nested {@link CommandManager} (may be null)
 	 */
 	public CommandManager getNestedManager() {
-		return _nested;
+		CommandGeneration generation = _generation;
+		return generation == null ? null : generation.getManager();
 	}
 	
 	/**
@@ -321,6 +415,7 @@ public class Command implements Aliasable, ArgumentHolder {
 	 * @return this
 	 */
 	public Command thatMayBeHidden(boolean hidden) {
+		checkNotFrozen();
 		_hidden = hidden;
 		return this;
 	}
@@ -334,6 +429,367 @@ public class Command implements Aliasable, ArgumentHolder {
 		return _hidden;
 	}
 	
+	/**
+	 * Add an {@link Interceptor} to this command. Interceptors added to a command apply to the command itself and all of its sub-commands,
+	 * and run after any interceptors of the {@link CommandManager}s above it.
+	 * 
+	 * @param interceptor
+	 *            The interceptor to add
+	 * @return this
+	 * @see CommandManager#withInterceptor(Interceptor)
+	 */
+	public Command withInterceptor(Interceptor interceptor) {
+		if (interceptor == null)
+			throw new IllegalArgumentException("interceptor cannot be null");
+		checkNotFrozen();
+		
+		_interceptors.add(interceptor);
+		compose(_inherited);
+		return this;
+	}
+	
+	/**
+	 * Get the interceptors that were added to this command (not including those of the {@link CommandManager}s above it).
+	 * 
+	 * @return The interceptors
+	 */
+	public List<Interceptor> getInterceptors() {
+		return Collections.unmodifiableList(_interceptors);
+	}
+	
+	/**
+	 * Get the handler with all interceptors that apply to this command wrapped around it. The pipeline is composed when the command is
+	 * registered (or its handler or interceptors change), so invoking it does not look anything up.
+	 * 
+	 * @return The composed pipeline, or {@code null} if this command has no handler
+	 */
+	Handler getPipeline() {
+		return _pipeline;
+	}
+	
+	/*
+	 * Flatten the inherited and own interceptors around the handler, and pass the chain on to the sub-commands.
+	 */
+	void compose(Interceptor[] inherited) {
+		_inherited = inherited;
+		Interceptor[] chain = concat(inherited, _interceptors);
+		
+		Handler pipeline = _handler;
+		if (pipeline != null) {
+			if (_coalescer != null) {
+				Coalescer coalescer = _coalescer;
+				Handler handler = pipeline;
+				pipeline = (context) -> coalescer.intercept(context, handler);
+			}
+			if (_cache != null) {
+				CommandCache cache = _cache;
+				Handler handler = pipeline;
+				pipeline = (context) -> cache.intercept(context, handler);
+			}
+			if (chain.length > 0) {
+				// an interceptor that does not call next stops the dispatch, which must not look like it succeeded
+				Handler handler = pipeline;
+				pipeline = (context) -> {
+					context._intercepted = false;
+					handler.handleCommand(context);
+				};
+				for (int i = chain.length - 1; i >= 0; i--)
+					pipeline = wrap(chain[i], pipeline);
+				Handler intercepted = pipeline;
+				pipeline = (context) -> {
+					context._intercepted = true;
+					intercepted.handleCommand(context);
+				};
+			}
+		}
+		_pipeline = pipeline;
+		
+		CommandManager nested = getNestedManager();
+		if (nested != null)
+			nested.compose(chain);
+	}
+	
+	static Interceptor[] concat(Interceptor[] a, List<Interceptor> b) {
+		if (b.isEmpty())
+			return a;
+		
+		Interceptor[] all = new Interceptor[a.length + b.size()];
+		System.arraycopy(a, 0, all, 0, a.length);
+		for (int i = 0; i < b.size(); i++)
+			all[a.length + i] = b.get(i);
+		return all;
+	}
+	
+	private static Handler wrap(Interceptor interceptor, Handler next) {
+		return (context) -> interceptor.intercept(context, next);
+	}
+	
+	/**
+	 * Set the execution deadline for this command. This overrides the timeout of the {@link CommandManager} that dispatches it.
+	 * 
+	 * @param timeout
+	 *            The timeout, or {@code 0} to use the manager's timeout
+	 * @param unit
+	 *            The unit of {@code timeout}
+	 * @return this
+	 * @see CommandManager#withTimeout(long, TimeUnit)
+	 */
+	public Command withTimeout(long timeout, TimeUnit unit) {
+		if (timeout < 0)
+			throw new IllegalArgumentException("timeout cannot be negative");
+		
+		_timeout = unit.toNanos(timeout);
+		return this;
+	}
+	
+	/**
+	 * Get the execution deadline for this command.
+	 * 
+	 * @param unit
+	 *            The unit of the returned value
+	 * @return The timeout, or {@code 0} if this command uses the manager's timeout
+	 */
+	public long getTimeout(TimeUnit unit) {
+		return unit.convert(_timeout, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Set how long a dispatch of this command must take to be logged in a {@link SlowCommandLog}. This overrides the threshold of the
+	 * log itself.
+	 * 
+	 * @param threshold
+	 *            The threshold, or {@code 0} to use the log's threshold
+	 * @param unit
+	 *            The unit of {@code threshold}
+	 * @return this
+	 */
+	public Command withSlowThreshold(long threshold, TimeUnit unit) {
+		if (threshold < 0)
+			throw new IllegalArgumentException("threshold cannot be negative");
+		
+		_slowThreshold = unit.toNanos(threshold);
+		return this;
+	}
+	
+	/**
+	 * Get how long a dispatch of this command must take to be logged in a {@link SlowCommandLog}.
+	 * 
+	 * @param unit
+	 *            The unit of the returned value
+	 * @return The threshold, or {@code 0} if the log's threshold is used
+	 */
+	public long getSlowThreshold(TimeUnit unit) {
+		return unit.convert(_slowThreshold, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Set the priority of this command, used to pick a {@link DispatchScheduler} lane. The command is queued with the higher of this and
+	 * its sender's {@link CommandSender#getPriority() priority}. (Default: {@code 0}, the lowest priority)
+	 * 
+	 * @param priority
+	 *            The priority
+	 * @return this
+	 * @see CommandManager#withScheduler(DispatchScheduler)
+	 */
+	public Command withPriority(int priority) {
+		if (priority < 0)
+			throw new IllegalArgumentException("priority cannot be negative");
+		
+		_priority = priority;
+		return this;
+	}
+	
+	/**
+	 * Get the priority of this command.
+	 * 
+	 * @return The priority
+	 */
+	public int getPriority() {
+		return _priority;
+	}
+	
+	/**
+	 * Set what happens to an asynchronous dispatch of this command when its {@link DispatchScheduler} lane is full. This overrides the
+	 * policy of the lane.
+	 * 
+	 * @param policy
+	 *            The policy, or {@code null} to use the lane's policy
+	 * @return this
+	 */
+	public Command withOverflowPolicy(OverflowPolicy policy) {
+		_overflow = policy;
+		return this;
+	}
+	
+	/**
+	 * Get what happens to an asynchronous dispatch of this command when its {@link DispatchScheduler} lane is full.
+	 * 
+	 * @return The policy, or {@code null} if the lane's policy is used
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return _overflow;
+	}
+	
+	/**
+	 * Declare this command as cacheable: it only reads state, so dispatches with the same arguments print the same output. Output is
+	 * shared between all senders, and up to 256 outputs are kept. Equivalent to:
+	 * {@code thatIsCacheable(ttl, unit, CommandCache.KeyPolicy.ARGUMENTS, 256)}
+	 * 
+	 * @param ttl
+	 *            How long output is kept
+	 * @param unit
+	 *            The unit of {@code ttl}
+	 * @return this
+	 * @see CommandCache
+	 */
+	public Command thatIsCacheable(long ttl, TimeUnit unit) {
+		return thatIsCacheable(ttl, unit, CommandCache.KeyPolicy.ARGUMENTS, 256);
+	}
+	
+	/**
+	 * Declare this command as cacheable: it only reads state, so dispatches with the same arguments print the same output. The output of
+	 * a dispatch is kept and printed again for later dispatches, without running the handler, until it expires or is invalidated.
+	 * 
+	 * @param ttl
+	 *            How long output is kept
+	 * @param unit
+	 *            The unit of {@code ttl}
+	 * @param policy
+	 *            Which dispatches share output
+	 * @param maxEntries
+	 *            The largest amount of outputs kept
+	 * @return this
+	 * @see CommandCache
+	 */
+	public Command thatIsCacheable(long ttl, TimeUnit unit, CommandCache.KeyPolicy policy, int maxEntries) {
+		if (ttl <= 0)
+			throw new IllegalArgumentException("ttl must be positive");
+		if (policy == null)
+			throw new IllegalArgumentException("policy cannot be null");
+		if (maxEntries <= 0)
+			throw new IllegalArgumentException("maxEntries must be positive");
+		checkNotFrozen();
+		
+		_cache = new CommandCache(ttl, unit, policy, maxEntries);
+		compose(_inherited);
+		return this;
+	}
+	
+	/**
+	 * Get the cache that keeps this command's output.
+	 * 
+	 * @return The cache, or {@code null} if this command is not cacheable
+	 */
+	public CommandCache getCache() {
+		return _cache;
+	}
+	
+	/**
+	 * Remove all cached output of this command and its sub-commands.
+	 */
+	public void invalidateCache() {
+		if (_cache != null)
+			_cache.invalidateAll();
+		CommandManager nested = getNestedManager();
+		if (nested != null)
+			nested.invalidateCaches();
+	}
+	
+	/**
+	 * Let concurrent dispatches of this command with the same arguments share one run of the handler. Dispatches that arrive while the
+	 * handler is already running for the same arguments wait for it to finish, and are sent the same output. This is meant for
+	 * expensive commands that only read state. Equivalent to: {@code thatMayCoalesce(true)}
+	 * 
+	 * @return this
+	 */
+	public Command thatCoalesces() {
+		return thatMayCoalesce(true);
+	}
+	
+	/**
+	 * Set whether concurrent dispatches of this command with the same arguments share one run of the handler. While dispatches are
+	 * sharing a run, the handler's {@link CommandContext#getSender() sender} is a sender that passes every message on to all of them.
+	 * 
+	 * @param coalesce
+	 *            Whether dispatches should be coalesced
+	 * @return this
+	 * @see #thatCoalesces()
+	 */
+	public Command thatMayCoalesce(boolean coalesce) {
+		checkNotFrozen();
+		if (coalesce == (_coalescer != null))
+			return this;
+		
+		_coalescer = coalesce ? new Coalescer() : null;
+		compose(_inherited);
+		return this;
+	}
+	
+	/**
+	 * Do concurrent dispatches of this command with the same arguments share one run of the handler?
+	 * 
+	 * @return {@code true} if dispatches are coalesced
+	 */
+	public boolean isCoalescing() {
+		return _coalescer != null;
+	}
+	
+	/**
+	 * Get how many dispatches of this command joined another dispatch instead of running the handler.
+	 * 
+	 * @return The amount of coalesced dispatches
+	 */
+	public long getCoalescedCount() {
+		return _coalescer == null ? 0 : _coalescer.getCoalescedCount();
+	}
+	
+	/**
+	 * Freeze this command and its sub-commands. Frozen commands use less memory and their accessors do not allocate, but their names,
+	 * aliases, arguments, handler, sub-commands, interceptors and caching cannot be changed; trying to do so throws a
+	 * {@link CommandException}. Operational settings such as the timeout and priority can still be changed. The argument list of a frozen
+	 * command may be shared with other commands, so it must not be modified.
+	 * 
+	 * <p>
+	 * Commands are normally frozen through {@link CommandManager#freeze()}.
+	 * </p>
+	 * 
+	 * @return this
+	 */
+	public Command freeze() {
+		freeze(new CommandInterner());
+		return this;
+	}
+	
+	void freeze(CommandInterner interner) {
+		if (_names != null)
+			return;
+		
+		_name = interner.string(_name);
+		_desc = interner.string(_desc);
+		_names = interner.names(_name, _aliases);
+		_aliases = null;
+		_args = interner.arguments(_args);
+		_interceptors = _interceptors.isEmpty() ? Collections.<Interceptor> emptyList() : Collections.unmodifiableList(new ArrayList<Interceptor>(_interceptors));
+		CommandManager nested = getNestedManager();
+		if (nested != null)
+			nested.freeze(interner);
+	}
+	
+	/**
+	 * Is this command frozen?
+	 * 
+	 * @return {@code true} if this command can no longer be changed
+	 * @see #freeze()
+	 */
+	public boolean isFrozen() {
+		return _names != null;
+	}
+	
+	private void checkNotFrozen() {
+		if (_names != null)
+			throw new CommandException(String.format("Command '%s' is frozen and cannot be changed", _name));
+	}
+	
 	/**
 	 * 
 	 * A method that is called when a command is invoked.
@@ -354,4 +810,27 @@ public class Command implements Aliasable, ArgumentHolder {
 		
 	}
 	
+	/**
+	 * Cross-cutting logic that is run around a command's {@link Handler}, such as permission checks, auditing or metrics.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	@FunctionalInterface
+	public static interface Interceptor {
+		
+		/**
+		 * Intercept a command invocation. To let the invocation continue, call {@code next.handleCommand(context)}; to stop it, simply
+		 * return without doing so. A dispatch that is stopped completes with {@link DispatchResult.Status#INTERCEPTED INTERCEPTED}, so it
+		 * is not journaled or counted as a success.
+		 * 
+		 * @param context
+		 *            The context of the command invocation
+		 * @param next
+		 *            The rest of the pipeline (the next interceptor, or the command's handler)
+		 */
+		public void intercept(CommandContext context, Handler next);
+		
+	}
+	
 }
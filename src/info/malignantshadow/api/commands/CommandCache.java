@@ -0,0 +1,265 @@
+package info.malignantshadow.api.commands;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the output of a {@link Command} that was declared {@link Command#thatIsCacheable(long, TimeUnit) cacheable}. When the command is
+ * dispatched again with the same arguments before its output expires, the output is printed to the sender again and the handler is not
+ * run.
+ * 
+ * <p>
+ * The cache sits between the command's {@link Command.Interceptor interceptors} and its handler, so interceptors (such as permission
+ * checks) still run for every dispatch. Only dispatches whose handler returns normally are kept. Once the cache is full, the least
+ * recently used output is evicted.
+ * </p>
+ * 
+ * <p>
+ * While its output is being recorded, the handler's {@link CommandContext#getSender() sender} is a recording sender that passes every
+ * message on to the real sender. Handlers of cacheable commands should not depend on the type of their sender.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ *
+ */
+public class CommandCache {
+	
+	private long _ttl;
+	private KeyPolicy _policy;
+	private int _max;
+	private LinkedHashMap<Key, Entry> _entries;
+	private AtomicLong _hits, _misses;
+	
+	CommandCache(long ttl, TimeUnit unit, KeyPolicy policy, int maxEntries) {
+		_ttl = unit.toNanos(ttl);
+		_policy = policy;
+		_max = maxEntries;
+		_entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				return size() > _max;
+			}
+			
+		};
+		_hits = new AtomicLong();
+		_misses = new AtomicLong();
+	}
+	
+	/*
+	 * Replay the cached output for the context, or run the handler and cache its output.
+	 */
+	void intercept(CommandContext context, Command.Handler next) {
+		Key key = new Key(context, _policy);
+		long now = System.nanoTime();
+		Entry entry;
+		synchronized (_entries) {
+			entry = _entries.get(key);
+			if (entry != null && now - entry._expires >= 0) {
+				_entries.remove(key);
+				entry = null;
+			}
+		}
+		
+		if (entry != null) {
+			_hits.incrementAndGet();
+			entry._output.replay(context.getSender());
+			return;
+		}
+		
+		_misses.incrementAndGet();
+		OutputRecorder recorder = new OutputRecorder(context.getSender());
+		CommandSender sender = context.swapSender(recorder);
+		try {
+			next.handleCommand(context);
+		} finally {
+			context.swapSender(sender);
+			recorder.stop();
+		}
+		
+		if (context.isCancelled())
+			return;
+		
+		synchronized (_entries) {
+			_entries.put(key, new Entry(recorder, System.nanoTime() + _ttl));
+		}
+	}
+	
+	/**
+	 * Get how long output is kept.
+	 * 
+	 * @param unit
+	 *            The unit of the returned value
+	 * @return The time to live of cached output
+	 */
+	public long getTimeToLive(TimeUnit unit) {
+		return unit.convert(_ttl, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Get what cached output is keyed by.
+	 * 
+	 * @return The key policy
+	 */
+	public KeyPolicy getKeyPolicy() {
+		return _policy;
+	}
+	
+	/**
+	 * Get the largest amount of outputs kept.
+	 * 
+	 * @return The maximum amount of entries
+	 */
+	public int getMaxEntries() {
+		return _max;
+	}
+	
+	/**
+	 * Get the amount of outputs currently kept. This may include outputs that have expired but were not removed yet.
+	 * 
+	 * @return The amount of entries
+	 */
+	public int size() {
+		synchronized (_entries) {
+			return _entries.size();
+		}
+	}
+	
+	/**
+	 * Get how many dispatches were answered from the cache.
+	 * 
+	 * @return The amount of hits
+	 */
+	public long getHitCount() {
+		return _hits.get();
+	}
+	
+	/**
+	 * Get how many dispatches ran the handler.
+	 * 
+	 * @return The amount of misses
+	 */
+	public long getMissCount() {
+		return _misses.get();
+	}
+	
+	/**
+	 * Remove all cached output. This should be called whenever the state the command reports on changes.
+	 */
+	public void invalidateAll() {
+		synchronized (_entries) {
+			_entries.clear();
+		}
+	}
+	
+	/**
+	 * Remove the cached output for the given arguments, for every sender.
+	 * 
+	 * @param args
+	 *            The arguments given to the command, excluding the command itself
+	 */
+	public void invalidate(String... args) {
+		synchronized (_entries) {
+			Iterator<Key> it = _entries.keySet().iterator();
+			while (it.hasNext())
+				if (Arrays.equals(it.next()._args, args))
+					it.remove();
+		}
+	}
+	
+	/**
+	 * Remove the cached output for a sender. This only has an effect when output is kept for each sender.
+	 * 
+	 * @param sender
+	 *            The sender
+	 * @see KeyPolicy#ARGUMENTS_AND_SENDER
+	 */
+	public void invalidate(CommandSender sender) {
+		if (_policy != KeyPolicy.ARGUMENTS_AND_SENDER)
+			return;
+		
+		String name = sender.getName();
+		synchronized (_entries) {
+			Iterator<Key> it = _entries.keySet().iterator();
+			while (it.hasNext())
+				if (name.equals(it.next()._sender))
+					it.remove();
+		}
+	}
+	
+	/**
+	 * Decides which dispatches of a command share cached output.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	public static enum KeyPolicy {
+		
+		/**
+		 * Dispatches with the same arguments share output, no matter who sent them.
+		 */
+		ARGUMENTS,
+		
+		/**
+		 * Dispatches with the same arguments share output only if they were sent by the same sender, by
+		 * {@link CommandSender#getName() name}.
+		 */
+		ARGUMENTS_AND_SENDER;
+		
+	}
+	
+	/*
+	 * Identifies a dispatch by its argument inputs (and extra arguments), and optionally by its sender.
+	 */
+	static final class Key {
+		
+		private final String[] _args;
+		private final String _sender;
+		private final int _hash;
+		
+		Key(CommandContext context, KeyPolicy policy) {
+			String[] input = context.getParsedArgs().getInput();
+			String[] extra = context.getExtra();
+			_args = Arrays.copyOf(input, input.length + extra.length);
+			System.arraycopy(extra, 0, _args, input.length, extra.length);
+			
+			CommandSender sender = context.getSender();
+			_sender = policy == KeyPolicy.ARGUMENTS || sender == null ? null : sender.getName();
+			_hash = Arrays.hashCode(_args) * 31 + (_sender == null ? 0 : _sender.hashCode());
+		}
+		
+		@Override
+		public int hashCode() {
+			return _hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			
+			Key other = (Key) obj;
+			return _hash == other._hash && Arrays.equals(_args, other._args) && (_sender == null ? other._sender == null : _sender.equals(other._sender));
+		}
+		
+	}
+	
+	private static final class Entry {
+		
+		private final OutputRecorder _output;
+		private final long _expires;
+		
+		Entry(OutputRecorder output, long expires) {
+			_output = output;
+			_expires = expires;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,133 @@
+package info.malignantshadow.api.commands;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A simple blocking client for a {@link CommandServer}. Mostly useful for tools and testing.
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ *
+ */
+public class CommandClient implements Closeable {
+	
+	private SocketChannel _channel;
+	private BufferedReader _in;
+	
+	/**
+	 * Connect to a {@link CommandServer}.
+	 * 
+	 * @param address
+	 *            The address of the server. This may be an {@link java.net.InetSocketAddress InetSocketAddress} or a
+	 *            {@link java.net.UnixDomainSocketAddress UnixDomainSocketAddress}.
+	 * @throws IOException
+	 *             If the connection could not be made
+	 */
+	public CommandClient(SocketAddress address) throws IOException {
+		_channel = SocketChannel.open(address);
+		_in = new BufferedReader(Channels.newReader(_channel, StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Send a command, and wait for it to finish.
+	 * 
+	 * @param command
+	 *            The command to send. It should not contain line breaks.
+	 * @return The response of the server
+	 * @throws IOException
+	 *             If the connection was closed or could not be used
+	 */
+	public Response send(String command) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap((command + "\n").getBytes(StandardCharsets.UTF_8));
+		while (buf.hasRemaining())
+			_channel.write(buf);
+		
+		List<String> output = new ArrayList<String>();
+		List<String> errors = new ArrayList<String>();
+		String line;
+		while ((line = _in.readLine()) != null) {
+			if (line.length() < 2)
+				continue;
+			
+			String message = line.substring(2);
+			switch (line.charAt(0)) {
+				case '+':
+					output.add(message);
+					break;
+				case '-':
+					errors.add(message);
+					break;
+				case '=':
+					return new Response(output, errors, message);
+			}
+		}
+		throw new EOFException("connection closed by server");
+	}
+	
+	@Override
+	public void close() throws IOException {
+		_channel.close();
+	}
+	
+	/**
+	 * The output of a command sent by a {@link CommandClient}.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	public static class Response {
+		
+		private List<String> _output, _errors;
+		private String _status;
+		
+		Response(List<String> output, List<String> errors, String status) {
+			_output = Collections.unmodifiableList(output);
+			_errors = Collections.unmodifiableList(errors);
+			_status = status;
+		}
+		
+		/**
+		 * Get the messages printed by the command.
+		 * 
+		 * @return The messages
+		 */
+		public List<String> getOutput() {
+			return _output;
+		}
+		
+		/**
+		 * Get the errors printed by the command.
+		 * 
+		 * @return The errors
+		 */
+		public List<String> getErrors() {
+			return _errors;
+		}
+		
+		/**
+		 * Get the {@link DispatchResult.Status status} of the command, as sent by the server.
+		 * 
+		 * @return The name of the status
+		 */
+		public String getStatus() {
+			return _status;
+		}
+		
+		@Override
+		public String toString() {
+			return "Response{status=" + _status + ", output=" + _output + ", errors=" + _errors + "}";
+		}
+		
+	}
+	
+}
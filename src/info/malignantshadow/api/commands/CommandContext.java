@@ -1,6 +1,7 @@
 package info.malignantshadow.api.commands;
 
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import info.malignantshadow.api.util.AttachableData;
 import info.malignantshadow.api.util.ListUtil;
@@ -19,6 +20,12 @@ public class CommandContext extends AttachableData {
 	private CommandSender _sender;
 	private Command _cmd;
 	private ParsedArguments _parsedArgs;
+	private long _deadline;
+	private volatile boolean _cancelled;
+	private CommandGeneration[] _generations;
+	private CommandLine _line;
+	private int _firstArg;
+	boolean _intercepted;
 	
 	/**
 	 * Construct a new command context with the given sender and arguments
@@ -61,21 +68,90 @@ public class CommandContext extends AttachableData {
 	/**
 	 * Get the argument inputs joined.
 	 * 
-	 * @param delimeter
+	 * @param delimiter
 	 *            The delimiter
 	 * @return The joined string.
 	 */
 	public String getInputJoined(String delimiter) {
-		return ListUtil.join(Arrays.asList(_parsedArgs.getInput()));
+		return ListUtil.join(Arrays.asList(_parsedArgs.getInput()), delimiter);
 	}
 	
 	/**
-	 * Get the full command that was sent, including the argument inputs and extra arguments.
+	 * Get the full command that was sent, including the argument inputs and extra arguments. If the command was dispatched from a line,
+	 * this is the line with its original spacing (without leading or trailing whitespace); otherwise the parts are joined by spaces.
 	 * 
-	 * @return The joined string.
+	 * @return The full command
+	 * @see #getFullCommandSequence()
 	 */
 	public String getFullCommandString() {
-		return _prefix + " " + getInputJoined() + " " + getExtraJoined();
+		if (_line != null)
+			return getFullCommandSequence().toString();
+		
+		StringBuilder sb = new StringBuilder(_prefix);
+		String input = getInputJoined();
+		String extra = getExtraJoined();
+		if (!input.isEmpty())
+			sb.append(' ').append(input);
+		if (!extra.isEmpty())
+			sb.append(' ').append(extra);
+		return sb.toString();
+	}
+	
+	/**
+	 * Get the full command that was sent, including the argument inputs and extra arguments. If the command was dispatched from a line,
+	 * this is a view of that line with its original spacing, so nothing is copied; otherwise it is the same as
+	 * {@link #getFullCommandString()}.
+	 * 
+	 * @return The full command
+	 */
+	public CharSequence getFullCommandSequence() {
+		if (_line == null)
+			return getFullCommandString();
+		
+		int first = _line.size() > 0 && _line.get(0).isEmpty() ? 1 : 0; // whitespace at the start of the line
+		return _line.slice(first, _line.size());
+	}
+	
+	/**
+	 * Get the argument inputs (not including extra arguments). If the command was dispatched from a line, this is a view of that line with
+	 * its original spacing, so nothing is copied; otherwise the inputs are joined by spaces.
+	 * 
+	 * @return The argument inputs
+	 */
+	public CharSequence getInputSequence() {
+		if (_line == null)
+			return getInputJoined();
+		
+		return _line.slice(_firstArg, _firstArg + _parsedArgs.getInput().length);
+	}
+	
+	/**
+	 * Get the extra arguments. If the command was dispatched from a line, this is a view of that line with its original spacing, so nothing
+	 * is copied; otherwise the extra arguments are joined by spaces.
+	 * 
+	 * @return The extra arguments
+	 */
+	public CharSequence getExtraSequence() {
+		if (_line == null)
+			return getExtraJoined();
+		
+		int first = _firstArg + _parsedArgs.getInput().length;
+		return _line.slice(first, first + getExtra().length);
+	}
+	
+	/*
+	 * Remember the line this context was dispatched from. args are the tokens given to the command, which are the last tokens of the line;
+	 * if they are not (for example, because createContext() was overridden), the line is not used.
+	 */
+	void setLine(CommandLine line, String[] args) {
+		int first = line.size() - args.length;
+		if (first < 0 || (args.length > 0 && args[0] != line.get(first)))
+			return;
+		if (_parsedArgs.getInput().length + getExtra().length != args.length)
+			return;
+		
+		_line = line;
+		_firstArg = first;
 	}
 	
 	/**
@@ -87,6 +163,15 @@ public class CommandContext extends AttachableData {
 		return _sender;
 	}
 	
+	/*
+	 * Replace the sender for the rest of the pipeline, returning the previous sender.
+	 */
+	CommandSender swapSender(CommandSender sender) {
+		CommandSender previous = _sender;
+		_sender = sender;
+		return previous;
+	}
+	
 	/**
 	 * Get the command that was sent.
 	 * 
@@ -256,11 +341,12 @@ public class CommandContext extends AttachableData {
 	
 	/**
 	 * Dispatch the command with this context. This should never be called within the handler code itself, as a {@link StackOverflowError} is likely to occur.
+	 * The context is passed through all {@link Command.Interceptor interceptors} that apply to the command before it reaches the handler.
 	 * 
 	 * @return {@code true} if this context was sent to the handler, or {@code false} if the command has no handler
 	 */
 	public boolean dispatchSelf() {
-		Command.Handler handler = _cmd.getHandler();
+		Command.Handler handler = _cmd.getPipeline();
 		if (handler == null)
 			return false;
 		
@@ -268,6 +354,86 @@ public class CommandContext extends AttachableData {
 		return true;
 	}
 	
+	/*
+	 * Was the last dispatch of this context stopped by an interceptor before it reached the handler?
+	 */
+	boolean wasIntercepted() {
+		return _intercepted;
+	}
+	
+	/*
+	 * Hold on to the generations of sub-commands this context was resolved through until it is released.
+	 */
+	void pin(CommandGeneration[] generations) {
+		_generations = generations;
+	}
+	
+	/*
+	 * Release the pinned generations. May be called more than once (for example by a timed out dispatch that is later dropped from its
+	 * queue), but only releases them the first time.
+	 */
+	void release() {
+		if (_generations == null)
+			return;
+		
+		CommandGeneration[] generations;
+		synchronized (this) {
+			generations = _generations;
+			_generations = null;
+		}
+		CommandGeneration.exit(generations);
+	}
+	
+	/**
+	 * Set the deadline of this context. Once {@link System#nanoTime()} passes the deadline, {@link #isCancelled()} will return {@code true}.
+	 * 
+	 * @param deadline
+	 *            The deadline, in terms of {@link System#nanoTime()}, or {@code 0} for no deadline
+	 */
+	void setDeadline(long deadline) {
+		_deadline = deadline;
+	}
+	
+	/**
+	 * Does this context have a deadline?
+	 * 
+	 * @return {@code true} if a timeout applies to this invocation
+	 */
+	public boolean hasDeadline() {
+		return _deadline != 0;
+	}
+	
+	/**
+	 * Get the time remaining before this invocation times out.
+	 * 
+	 * @param unit
+	 *            The unit of the returned value
+	 * @return The remaining time (may be negative if the deadline has passed), or {@link Long#MAX_VALUE} if there is no deadline.
+	 */
+	public long getTimeRemaining(TimeUnit unit) {
+		if (_deadline == 0)
+			return Long.MAX_VALUE;
+		
+		return unit.convert(_deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Cancel this invocation. Handlers are expected to poll {@link #isCancelled()} during long-running work and return early when it
+	 * returns {@code true}.
+	 */
+	public void cancel() {
+		_cancelled = true;
+	}
+	
+	/**
+	 * Has this invocation been cancelled, or has its deadline passed?
+	 * 
+	 * @return {@code true} if the handler should stop working
+	 */
+	public boolean isCancelled() {
+		return _cancelled || (_deadline != 0 && System.nanoTime() - _deadline >= 0);
+	}
+	
 	@Override
 	public String toString() {
 		String format = "CommandContext{name=%s, %s}";
@@ -0,0 +1,170 @@
+package info.malignantshadow.api.commands;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One version of the sub-commands of a {@link Command}. Each time the sub-commands are replaced with
+ * {@link Command#reloadSubCommands(CommandManager)}, a new generation is published and the previous one is retired.
+ * 
+ * <p>
+ * A dispatch that resolves a sub-command holds on to the generations it went through until its handler returns (or until it fails
+ * before reaching the handler), so it keeps running against the handlers it was resolved with even if the tree is reloaded meanwhile.
+ * Once a retired generation has no dispatches left, it is drained; {@link #awaitDrain(long, TimeUnit)} waits for that, for example
+ * before unloading the classes of the old handlers.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ *
+ */
+public final class CommandGeneration {
+	
+	private final CommandManager _manager;
+	private final long _version;
+	private final AtomicInteger _inFlight;
+	private final CountDownLatch _drained;
+	private volatile boolean _retired;
+	
+	CommandGeneration(CommandManager manager, long version) {
+		_manager = manager;
+		_version = version;
+		_inFlight = new AtomicInteger();
+		_drained = new CountDownLatch(1);
+	}
+	
+	/**
+	 * Get the manager holding the sub-commands of this generation.
+	 * 
+	 * @return The manager
+	 */
+	public CommandManager getManager() {
+		return _manager;
+	}
+	
+	/**
+	 * Get the version of this generation. The first sub-commands of a command are version {@code 1}, and each reload adds one.
+	 * 
+	 * @return The version
+	 */
+	public long getVersion() {
+		return _version;
+	}
+	
+	/**
+	 * Get the amount of dispatches currently running against this generation.
+	 * 
+	 * @return The amount of dispatches
+	 */
+	public int getInFlight() {
+		return Math.max(0, _inFlight.get());
+	}
+	
+	/**
+	 * Has this generation been replaced?
+	 * 
+	 * @return {@code true} if a newer generation was published
+	 */
+	public boolean isRetired() {
+		return _retired;
+	}
+	
+	/**
+	 * Has this generation been replaced, and have all dispatches that were running against it finished?
+	 * 
+	 * @return {@code true} if this generation is retired and drained
+	 */
+	public boolean isDrained() {
+		return _drained.getCount() == 0;
+	}
+	
+	/**
+	 * Wait until this generation is {@link #isDrained() drained}.
+	 * 
+	 * @param timeout
+	 *            The longest time to wait
+	 * @param unit
+	 *            The unit of {@code timeout}
+	 * @return {@code true} if this generation was drained, {@code false} if the time ran out first
+	 * @throws InterruptedException
+	 *             If the current thread was interrupted while waiting
+	 */
+	public boolean awaitDrain(long timeout, TimeUnit unit) throws InterruptedException {
+		return _drained.await(timeout, unit);
+	}
+	
+	/**
+	 * Wait until this generation is {@link #isDrained() drained}. A generation that is still current is never drained, so this only
+	 * returns for retired generations.
+	 * 
+	 * @throws InterruptedException
+	 *             If the current thread was interrupted while waiting
+	 */
+	public void awaitDrain() throws InterruptedException {
+		_drained.await();
+	}
+	
+	/*
+	 * Pin this generation for a dispatch. Returns false if it was retired in the meantime, in which case the dispatch has to be resolved
+	 * again. Because the count is raised before the retired flag is read, a drain cannot be missed: either retire() sees the count, or this
+	 * sees the flag.
+	 */
+	boolean enter() {
+		_inFlight.incrementAndGet();
+		if (!_retired)
+			return true;
+		
+		exit();
+		return false;
+	}
+	
+	void exit() {
+		if (_inFlight.decrementAndGet() == 0 && _retired)
+			_drained.countDown();
+	}
+	
+	/*
+	 * Pin every generation, or none of them if one was retired.
+	 */
+	static boolean enter(CommandGeneration[] generations) {
+		if (generations == null)
+			return true;
+		
+		for (int i = 0; i < generations.length; i++) {
+			if (!generations[i].enter()) {
+				while (--i >= 0)
+					generations[i].exit();
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	static void exit(CommandGeneration[] generations) {
+		if (generations != null)
+			for (CommandGeneration g : generations)
+				g.exit();
+	}
+	
+	static CommandGeneration[] add(CommandGeneration[] generations, CommandGeneration generation) {
+		if (generations == null)
+			return new CommandGeneration[] { generation };
+		
+		CommandGeneration[] grown = Arrays.copyOf(generations, generations.length + 1);
+		grown[generations.length] = generation;
+		return grown;
+	}
+	
+	void retire() {
+		_retired = true;
+		if (_inFlight.get() == 0)
+			_drained.countDown();
+	}
+	
+	@Override
+	public String toString() {
+		return "CommandGeneration{version=" + _version + ", inFlight=" + getInFlight() + ", retired=" + _retired + "}";
+	}
+	
+}
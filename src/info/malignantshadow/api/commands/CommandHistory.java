@@ -0,0 +1,329 @@
+package info.malignantshadow.api.commands;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The recent commands of each {@link CommandSender}, so they can be run again by typing {@code !!} (the last command), {@code !n} (the
+ * command numbered {@code n}) or {@code !-n} (the command {@code n} commands ago).
+ * 
+ * <p>
+ * Each entry keeps the command it was resolved to and the arguments it was given, so running it again skips splitting the line and
+ * looking the command up; only the arguments are parsed again. If the sub-commands it went through have been
+ * {@link Command#reloadSubCommands(CommandManager) reloaded} since, the line is resolved again instead.
+ * </p>
+ * 
+ * <p>
+ * Every sender has a ring of at most {@link #getSize()} entries, in which the oldest entry is overwritten. The ring of a sender that has
+ * not dispatched anything for the {@link #withIdleTimeout(long, TimeUnit) idle timeout} is dropped, so senders that have gone away do not
+ * keep their history, or the commands in it, in memory.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ * @see CommandManager#withHistory(CommandHistory)
+ *
+ */
+public class CommandHistory {
+	
+	private int _size;
+	private long _idleTimeout;
+	private ConcurrentHashMap<CommandSender, Ring> _rings;
+	private AtomicLong _lastSweep;
+	
+	/**
+	 * Construct a new CommandHistory. Senders that are idle for 30 minutes lose their history.
+	 * 
+	 * @param size
+	 *            The maximum amount of entries to keep for each sender
+	 */
+	public CommandHistory(int size) {
+		if (size <= 0)
+			throw new IllegalArgumentException("size must be positive");
+		
+		_size = size;
+		_rings = new ConcurrentHashMap<CommandSender, Ring>();
+		_lastSweep = new AtomicLong(System.nanoTime());
+		withIdleTimeout(30, TimeUnit.MINUTES);
+	}
+	
+	/**
+	 * Set how long a sender may go without dispatching a command before its history is dropped.
+	 * 
+	 * @param timeout
+	 *            The timeout
+	 * @param unit
+	 *            The unit of {@code timeout}
+	 * @return this
+	 */
+	public CommandHistory withIdleTimeout(long timeout, TimeUnit unit) {
+		if (timeout <= 0)
+			throw new IllegalArgumentException("timeout must be positive");
+		
+		_idleTimeout = unit.toNanos(timeout);
+		return this;
+	}
+	
+	/**
+	 * Get how long a sender may go without dispatching a command before its history is dropped.
+	 * 
+	 * @param unit
+	 *            The unit to get the timeout in
+	 * @return The timeout
+	 */
+	public long getIdleTimeout(TimeUnit unit) {
+		return unit.convert(_idleTimeout, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Get the maximum amount of entries kept for each sender.
+	 * 
+	 * @return The size
+	 */
+	public int getSize() {
+		return _size;
+	}
+	
+	/**
+	 * Get the amount of senders that have a history.
+	 * 
+	 * @return The amount of senders
+	 */
+	public int getSenderCount() {
+		return _rings.size();
+	}
+	
+	/**
+	 * Get the entries of a sender, oldest first.
+	 * 
+	 * @param sender
+	 *            The sender
+	 * @return The entries
+	 */
+	public List<Entry> getEntries(CommandSender sender) {
+		Ring ring = sender == null ? null : _rings.get(sender);
+		return ring == null ? Collections.<Entry> emptyList() : ring.getEntries();
+	}
+	
+	/**
+	 * Get an entry of a sender. Entries are numbered from {@code 1}, in the order they were added, and keep their numbers when older
+	 * entries are overwritten.
+	 * 
+	 * @param sender
+	 *            The sender
+	 * @param number
+	 *            The number of the entry, or, if negative, how many entries ago it was added ({@code -1} is the last entry)
+	 * @return The entry, or {@code null} if the sender has no such entry
+	 */
+	public Entry get(CommandSender sender, long number) {
+		Ring ring = sender == null ? null : _rings.get(sender);
+		return ring == null ? null : ring.get(number);
+	}
+	
+	/**
+	 * Get the last entry of a sender.
+	 * 
+	 * @param sender
+	 *            The sender
+	 * @return The entry, or {@code null} if the sender has no history
+	 */
+	public Entry getLast(CommandSender sender) {
+		return get(sender, -1);
+	}
+	
+	/**
+	 * Remove the history of a sender.
+	 * 
+	 * @param sender
+	 *            The sender
+	 */
+	public void clear(CommandSender sender) {
+		if (sender != null)
+			_rings.remove(sender);
+	}
+	
+	/**
+	 * Drop the history of every sender that has been idle for longer than the idle timeout. This is also done while commands are recorded,
+	 * at most twice per timeout.
+	 * 
+	 * @return The amount of senders whose history was dropped
+	 */
+	public int evictIdle() {
+		long now = System.nanoTime();
+		_lastSweep.set(now);
+		int evicted = 0;
+		for (CommandSender sender : _rings.keySet())
+			if (_rings.computeIfPresent(sender, (s, ring) -> now - ring._lastUsed > _idleTimeout ? null : ring) == null)
+				evicted++;
+		return evicted;
+	}
+	
+	/*
+	 * Add an entry to the history of a sender. Adding to a ring and dropping it are both done inside the map, so an entry is never added
+	 * to a ring that is being dropped.
+	 */
+	void record(CommandSender sender, Entry entry) {
+		long now = System.nanoTime();
+		_rings.compute(sender, (s, ring) -> {
+			if (ring == null)
+				ring = new Ring(_size);
+			ring.add(entry, now);
+			return ring;
+		});
+		
+		long last = _lastSweep.get();
+		if (now - last > _idleTimeout / 2 && _lastSweep.compareAndSet(last, now))
+			evictIdle();
+	}
+	
+	/*
+	 * Is a line a reference to an entry: !!, !n or !-n?
+	 */
+	static boolean isReference(String line) {
+		int length = line.length();
+		if (length < 2 || line.charAt(0) != '!')
+			return false;
+		if (length == 2 && line.charAt(1) == '!')
+			return true;
+		
+		int i = line.charAt(1) == '-' ? 2 : 1;
+		if (i == length || length - i > 18)
+			return false;
+		for (; i < length; i++)
+			if (line.charAt(i) < '0' || line.charAt(i) > '9')
+				return false;
+		return true;
+	}
+	
+	/*
+	 * Find the entry a reference is to. The line must be a reference.
+	 */
+	Entry find(CommandSender sender, String reference) {
+		if (reference.charAt(1) == '!')
+			return getLast(sender);
+		
+		long number = Long.parseLong(reference.substring(1));
+		return number == 0 ? null : get(sender, number);
+	}
+	
+	@Override
+	public String toString() {
+		return "CommandHistory{size=" + _size + ", senders=" + _rings.size() + "}";
+	}
+	
+	private static final class Ring {
+		
+		private final Entry[] _entries;
+		private long _count;
+		private volatile long _lastUsed;
+		
+		private Ring(int size) {
+			_entries = new Entry[size];
+		}
+		
+		private synchronized void add(Entry entry, long now) {
+			_entries[(int) (_count++ % _entries.length)] = entry;
+			_lastUsed = now;
+		}
+		
+		private synchronized Entry get(long number) {
+			if (number < 0)
+				number += _count + 1;
+			if (number <= 0 || number > _count || number <= _count - _entries.length)
+				return null;
+			return _entries[(int) ((number - 1) % _entries.length)];
+		}
+		
+		private synchronized List<Entry> getEntries() {
+			long first = Math.max(0, _count - _entries.length);
+			List<Entry> entries = new ArrayList<Entry>((int) (_count - first));
+			for (long n = first; n < _count; n++)
+				entries.add(_entries[(int) (n % _entries.length)]);
+			return entries;
+		}
+		
+	}
+	
+	/**
+	 * A command that was dispatched, as it was resolved.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	public static final class Entry {
+		
+		private final Command _command;
+		private final String _prefix;
+		private final String[] _args;
+		private final CommandGeneration[] _generations;
+		private final CommandLine _line;
+		
+		Entry(Command command, String prefix, String[] args, CommandGeneration[] generations, CommandLine line) {
+			_command = command;
+			_prefix = prefix;
+			_args = args;
+			_generations = generations;
+			_line = line;
+		}
+		
+		/**
+		 * Get the command that was run.
+		 * 
+		 * @return The command
+		 */
+		public Command getCommand() {
+			return _command;
+		}
+		
+		/**
+		 * Get the command that was sent (excluding the arguments).
+		 * 
+		 * @return The command
+		 */
+		public String getCommandPrefix() {
+			return _prefix;
+		}
+		
+		/**
+		 * Get the arguments that were given to the command.
+		 * 
+		 * @return A copy of the arguments
+		 */
+		public String[] getArgs() {
+			return _args.clone();
+		}
+		
+		/**
+		 * Get the line that was dispatched, or the command and its arguments joined by spaces if it was not dispatched as one line.
+		 * 
+		 * @return The line
+		 */
+		public String getLine() {
+			if (_line != null)
+				return _line.toString();
+			return _args.length == 0 ? _prefix : _prefix + " " + String.join(" ", _args);
+		}
+		
+		String[] args() {
+			return _args;
+		}
+		
+		CommandGeneration[] getGenerations() {
+			return _generations;
+		}
+		
+		CommandLine line() {
+			return _line;
+		}
+		
+		@Override
+		public String toString() {
+			return getLine();
+		}
+		
+	}
+	
+}
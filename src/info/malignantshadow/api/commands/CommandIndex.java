@@ -0,0 +1,149 @@
+package info.malignantshadow.api.commands;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * The commands of a manager that {@link CommandManager#thatStaysSorted(Comparator) stays sorted}, kept in order as they are added. The
+ * commands are held in a skip list, so adding one takes O(log n) time and never moves the others, and readers on other threads only ever
+ * see the commands before or after an addition, never a list that is half sorted.
+ * 
+ * <p>
+ * Commands that the comparator considers equal stay in the order they were added. {@link #getCommands()} returns an unmodifiable copy of
+ * the commands in order, which is made the first time it is needed after a command is added and then shared until the next one is. The
+ * aliases the commands had when they were added are kept in a second skip list, so a command can be found by an alias, or an alias
+ * checked before adding a command, without going through the commands.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ *
+ */
+final class CommandIndex {
+	
+	private final Comparator<Command> _order;
+	private final ConcurrentSkipListSet<Entry> _entries;
+	private final ConcurrentSkipListMap<String, Command> _aliases;
+	private volatile long _added;
+	private volatile Snapshot _snapshot;
+	
+	/**
+	 * Create an empty index.
+	 * 
+	 * @param order
+	 *            How the commands are sorted
+	 */
+	CommandIndex(Comparator<Command> order) {
+		_order = order;
+		_entries = new ConcurrentSkipListSet<Entry>(this::compare);
+		_aliases = new ConcurrentSkipListMap<String, Command>(String.CASE_INSENSITIVE_ORDER);
+		_snapshot = new Snapshot(Collections.<Command> emptyList(), 0);
+	}
+	
+	private int compare(Entry a, Entry b) {
+		int cmp = _order.compare(a._command, b._command);
+		return cmp != 0 ? cmp : Long.compare(a._added, b._added);
+	}
+	
+	/**
+	 * Get how the commands are sorted.
+	 * 
+	 * @return The comparator
+	 */
+	Comparator<Command> getOrder() {
+		return _order;
+	}
+	
+	/**
+	 * Add a command in its place. Adding commands from more than one thread at once must be synchronized by the caller.
+	 * 
+	 * @param command
+	 *            The command
+	 */
+	void add(Command command) {
+		long added = _added;
+		_entries.add(new Entry(command, added));
+		for (String alias : command.getAliases(true))
+			_aliases.putIfAbsent(alias, command);
+		_added = added + 1;
+	}
+	
+	/**
+	 * Get the command that had an alias, ignoring case, when it was added.
+	 * 
+	 * @param alias
+	 *            The alias
+	 * @return The command, or {@code null} if none had the alias
+	 */
+	Command get(String alias) {
+		return _aliases.get(alias);
+	}
+	
+	/**
+	 * Add some commands in their places.
+	 * 
+	 * @param commands
+	 *            The commands
+	 */
+	void addAll(List<Command> commands) {
+		for (Command c : commands)
+			add(c);
+	}
+	
+	/**
+	 * Get the commands, in order. The list cannot be modified, and does not change when commands are added later.
+	 * 
+	 * @return The commands
+	 */
+	List<Command> getCommands() {
+		long added = _added;
+		Snapshot snapshot = _snapshot;
+		if (snapshot._added == added)
+			return snapshot._commands;
+		
+		// every command counted in added is in the skip list by now, so the copy is at least as new as added says
+		Command[] commands = new Command[_entries.size()];
+		int i = 0;
+		for (Entry e : _entries) {
+			if (i == commands.length)
+				commands = Arrays.copyOf(commands, i * 2 + 1); // a command was added while copying
+			commands[i++] = e._command;
+		}
+		List<Command> list = Collections.unmodifiableList(Arrays.asList(i == commands.length ? commands : Arrays.copyOf(commands, i)));
+		_snapshot = new Snapshot(list, added);
+		return list;
+	}
+	
+	@Override
+	public String toString() {
+		return "CommandIndex" + getCommands();
+	}
+	
+	private static final class Snapshot {
+		
+		private final List<Command> _commands;
+		private final long _added;
+		
+		private Snapshot(List<Command> commands, long added) {
+			_commands = commands;
+			_added = added;
+		}
+		
+	}
+	
+	private static final class Entry {
+		
+		private final Command _command;
+		private final long _added;
+		
+		private Entry(Command command, long added) {
+			_command = command;
+			_added = added;
+		}
+		
+	}
+	
+}
@@ -15,6 +15,7 @@ public class CommandInfo {
 	private String _full;
 	private Command _cmd;
 	private String[] _args;
+	private CommandGeneration[] _generations;
 	
 	/**
 	 * Construct a new {@link CommandInfo} object.
@@ -32,6 +33,11 @@ public class CommandInfo {
 		_args = args;
 	}
 	
+	CommandInfo(String full, Command command, String[] args, CommandGeneration[] generations) {
+		this(full, command, args);
+		_generations = generations;
+	}
+	
 	/**
 	 * Get the command string the user used.
 	 * 
@@ -58,4 +64,12 @@ public class CommandInfo {
 	public String[] getArgs() {
 		return _args;
 	}
+	
+	/*
+	 * The generations of sub-commands that were gone through to resolve the command, or null if there were none.
+	 */
+	CommandGeneration[] getGenerations() {
+		return _generations;
+	}
+	
 }
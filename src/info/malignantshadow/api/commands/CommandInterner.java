@@ -0,0 +1,177 @@
+package info.malignantshadow.api.commands;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import info.malignantshadow.api.util.arguments.Argument;
+import info.malignantshadow.api.util.arguments.ArgumentList;
+
+/**
+ * Shares identical parts of frozen commands, so a large tree (or many copies of the same tree) does not keep a copy of each for every
+ * command. Names and descriptions are interned, commands with the same names share one {@link Names}, and commands whose arguments are the
+ * same {@link Argument} objects share one {@link ArgumentList}. The shared lists never leave the commands that hold them:
+ * {@link Command#getArguments()} returns a copy, so changing the arguments of one command cannot change those of another.
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ * @see CommandManager#freeze()
+ *
+ */
+final class CommandInterner {
+	
+	private final Map<List<String>, Names> _names;
+	private final Map<ArgumentsKey, ArgumentList> _args;
+	private final ArgumentList _noArguments;
+	
+	CommandInterner() {
+		_names = new HashMap<List<String>, Names>();
+		_args = new HashMap<ArgumentsKey, ArgumentList>();
+		_noArguments = new ArgumentList();
+	}
+	
+	String string(String s) {
+		return s == null ? null : s.intern();
+	}
+	
+	Names names(String name, List<String> aliases) {
+		String[] all = new String[aliases.size() + 1];
+		all[0] = name;
+		for (int i = 0; i < aliases.size(); i++)
+			all[i + 1] = aliases.get(i);
+		
+		List<String> key = Arrays.asList(all);
+		Names names = _names.get(key);
+		if (names == null) {
+			for (int i = 0; i < all.length; i++)
+				all[i] = all[i].intern();
+			names = new Names(all);
+			_names.put(key, names);
+		}
+		return names;
+	}
+	
+	ArgumentList arguments(ArgumentList args) {
+		Argument extra = args.getExtraArgument();
+		if (args.isEmpty() && extra == null)
+			return _noArguments;
+		
+		ArgumentsKey key = new ArgumentsKey(args.toArray(new Argument[args.size()]), extra);
+		ArgumentList shared = _args.get(key);
+		if (shared == null) {
+			shared = copy(args);
+			_args.put(key, shared);
+		}
+		return shared;
+	}
+	
+	/*
+	 * Copy an argument list, with its extra argument.
+	 */
+	static ArgumentList copy(ArgumentList args) {
+		ArgumentList copy = new ArgumentList(args);
+		Argument extra = args.getExtraArgument();
+		if (extra != null && copy.getExtraArgument() == null)
+			copy.setExtraArgument(extra.getDisplay(), extra.getDescription(), extra.isRequired());
+		return copy;
+	}
+	
+	/**
+	 * The name and aliases of a frozen command. Every accessor returns shared objects, so they do not allocate.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	static final class Names {
+		
+		private static final String[] NONE = new String[0];
+		
+		final String[] _all, _aliases;
+		final List<String> _allList, _aliasList;
+		
+		Names(String[] all) {
+			_all = all;
+			_aliases = all.length == 1 ? NONE : Arrays.copyOfRange(all, 1, all.length);
+			_allList = new View(all, 0);
+			_aliasList = new View(all, 1);
+		}
+		
+		boolean contains(String alias) {
+			for (String s : _all)
+				if (s.equalsIgnoreCase(alias))
+					return true;
+			return false;
+		}
+		
+	}
+	
+	/*
+	 * An unmodifiable list over part of an array.
+	 */
+	private static final class View extends AbstractList<String> implements RandomAccess {
+		
+		private final String[] _array;
+		private final int _offset;
+		
+		View(String[] array, int offset) {
+			_array = array;
+			_offset = offset;
+		}
+		
+		@Override
+		public String get(int index) {
+			if (index < 0 || index >= size())
+				throw new IndexOutOfBoundsException("index " + index + " out of bounds for size " + size());
+			return _array[_offset + index];
+		}
+		
+		@Override
+		public int size() {
+			return _array.length - _offset;
+		}
+		
+	}
+	
+	/*
+	 * Argument lists are only shared if they hold the same Argument objects, since arguments may have properties (such as accepted types)
+	 * that cannot be compared.
+	 */
+	private static final class ArgumentsKey {
+		
+		private final Argument[] _args;
+		private final Argument _extra;
+		private final int _hash;
+		
+		ArgumentsKey(Argument[] args, Argument extra) {
+			_args = args;
+			_extra = extra;
+			int hash = System.identityHashCode(extra);
+			for (Argument a : args)
+				hash = hash * 31 + System.identityHashCode(a);
+			_hash = hash;
+		}
+		
+		@Override
+		public int hashCode() {
+			return _hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ArgumentsKey))
+				return false;
+			
+			ArgumentsKey other = (ArgumentsKey) obj;
+			if (_extra != other._extra || _args.length != other._args.length)
+				return false;
+			for (int i = 0; i < _args.length; i++)
+				if (_args[i] != other._args[i])
+					return false;
+			return true;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,309 @@
+package info.malignantshadow.api.commands;
+
+import java.io.BufferedWriter;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import info.malignantshadow.api.util.arguments.Argument;
+
+/**
+ * Writes a description of commands as JSON, straight to a {@link Writer} or {@link OutputStream}. Nothing is built in memory first: the
+ * tree is walked and written as it goes, so the memory used only depends on how deep the tree is, not how big it is.
+ * 
+ * <p>
+ * Each command is written as an object:
+ * </p>
+ * 
+ * <pre>
+ * {"name": "eat", "aliases": ["e"], "description": "Eat a cookie", "hidden": false,
+ *  "arguments": [{"name": "amount", "display": "amount", "description": "...", "required": true}],
+ *  "extra": null, "commands": [...]}
+ * </pre>
+ * 
+ * <p>
+ * {@code "commands"} is only written for commands with sub-commands, and {@code "extra"} is the extra argument (in the same form as an
+ * argument) or {@code null}.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ *
+ */
+public class CommandJsonWriter implements Flushable {
+	
+	private Writer _out;
+	private boolean _hidden;
+	private String _indent;
+	private int _depth;
+	
+	/**
+	 * Construct a new CommandJsonWriter.
+	 * 
+	 * @param out
+	 *            The writer to write to
+	 */
+	public CommandJsonWriter(Writer out) {
+		_out = out;
+		_hidden = true;
+		_indent = "";
+	}
+	
+	/**
+	 * Construct a new CommandJsonWriter that writes UTF-8.
+	 * 
+	 * @param out
+	 *            The stream to write to
+	 */
+	public CommandJsonWriter(OutputStream out) {
+		this(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+	}
+	
+	/**
+	 * Set whether hidden commands (and their sub-commands) are written. (Default: {@code true})
+	 * 
+	 * @param hidden
+	 *            {@code false} to leave hidden commands out
+	 * @return this
+	 */
+	public CommandJsonWriter thatIncludesHidden(boolean hidden) {
+		_hidden = hidden;
+		return this;
+	}
+	
+	/**
+	 * Set how many spaces each level is indented by. (Default: {@code 0}, which writes everything on one line)
+	 * 
+	 * @param spaces
+	 *            The amount of spaces
+	 * @return this
+	 */
+	public CommandJsonWriter withIndent(int spaces) {
+		if (spaces < 0)
+			throw new IllegalArgumentException("spaces cannot be negative");
+		
+		StringBuilder sb = new StringBuilder(spaces);
+		for (int i = 0; i < spaces; i++)
+			sb.append(' ');
+		_indent = sb.toString();
+		return this;
+	}
+	
+	/**
+	 * Write every command of a manager, and all of their sub-commands, as an array.
+	 * 
+	 * @param manager
+	 *            The manager
+	 * @throws IOException
+	 *             If the output could not be written
+	 */
+	public void write(CommandManager manager) throws IOException {
+		writeCommands(manager.getCommands());
+		flush();
+	}
+	
+	/**
+	 * Write a single command and its sub-commands.
+	 * 
+	 * @param command
+	 *            The command
+	 * @throws IOException
+	 *             If the output could not be written
+	 */
+	public void write(Command command) throws IOException {
+		writeCommand(command);
+		flush();
+	}
+	
+	/**
+	 * Write the command found by following a path from a manager, and its sub-commands. For example, the path {@code "cookie eat"} finds
+	 * the {@code cookie} command and then its {@code eat} sub-command. Aliases may be used in the path.
+	 * 
+	 * @param root
+	 *            The manager to start from
+	 * @param path
+	 *            The path of the command, separated by whitespace
+	 * @throws IOException
+	 *             If the output could not be written
+	 * @throws IllegalArgumentException
+	 *             If there is no command at the given path
+	 */
+	public void write(CommandManager root, String path) throws IOException {
+		write(find(root, path));
+	}
+	
+	/**
+	 * Find the command at the end of a path.
+	 * 
+	 * @param root
+	 *            The manager to start from
+	 * @param path
+	 *            The path of the command, separated by whitespace
+	 * @return The command
+	 * @throws IllegalArgumentException
+	 *             If there is no command at the given path
+	 */
+	static Command find(CommandManager root, String path) {
+		String[] names = path.trim().split("\\s+");
+		CommandManager manager = root;
+		Command cmd = null;
+		for (String name : names) {
+			cmd = manager == null ? null : manager.getCommand(name);
+			if (cmd == null)
+				throw new IllegalArgumentException("there is no command at '" + path + "'");
+			manager = cmd.getNestedManager();
+		}
+		return cmd;
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		_out.flush();
+	}
+	
+	private void writeCommands(List<Command> commands) throws IOException {
+		_out.write('[');
+		_depth++;
+		boolean first = true;
+		for (Command c : commands) {
+			if (c.shouldBeHidden() && !_hidden)
+				continue;
+			
+			if (!first)
+				_out.write(',');
+			first = false;
+			newLine();
+			writeCommand(c);
+		}
+		_depth--;
+		if (!first)
+			newLine();
+		_out.write(']');
+	}
+	
+	private void writeCommand(Command cmd) throws IOException {
+		_out.write('{');
+		_depth++;
+		name("name", true);
+		string(cmd.getName());
+		
+		name("aliases", false);
+		_out.write('[');
+		String[] aliases = cmd.getAliases();
+		for (int i = 0; i < aliases.length; i++) {
+			if (i > 0)
+				_out.write(',');
+			string(aliases[i]);
+		}
+		_out.write(']');
+		
+		name("description", false);
+		string(cmd.getDescription());
+		name("hidden", false);
+		_out.write(cmd.shouldBeHidden() ? "true" : "false");
+		
+		name("arguments", false);
+		_out.write('[');
+		boolean first = true;
+		_depth++;
+		for (Argument a : cmd.arguments()) {
+			if (!first)
+				_out.write(',');
+			first = false;
+			newLine();
+			writeArgument(a);
+		}
+		_depth--;
+		if (!first)
+			newLine();
+		_out.write(']');
+		
+		name("extra", false);
+		Argument extra = cmd.arguments().getExtraArgument();
+		if (extra == null)
+			_out.write("null");
+		else
+			writeArgument(extra);
+		
+		if (cmd.isNested()) {
+			name("commands", false);
+			writeCommands(cmd.getNestedManager().getCommands());
+		}
+		_depth--;
+		newLine();
+		_out.write('}');
+	}
+	
+	private void writeArgument(Argument arg) throws IOException {
+		_out.write("{\"name\":");
+		string(arg.getName());
+		_out.write(",\"display\":");
+		string(arg.getDisplay());
+		_out.write(",\"description\":");
+		string(arg.getDescription());
+		_out.write(",\"required\":");
+		_out.write(arg.isRequired() ? "true" : "false");
+		_out.write('}');
+	}
+	
+	private void name(String name, boolean first) throws IOException {
+		if (!first)
+			_out.write(',');
+		newLine();
+		_out.write('"');
+		_out.write(name);
+		_out.write(_indent.isEmpty() ? "\":" : "\": ");
+	}
+	
+	private void newLine() throws IOException {
+		if (_indent.isEmpty())
+			return;
+		
+		_out.write('\n');
+		for (int i = 0; i < _depth; i++)
+			_out.write(_indent);
+	}
+	
+	private void string(String s) throws IOException {
+		if (s == null) {
+			_out.write("null");
+			return;
+		}
+		
+		_out.write('"');
+		int start = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029')
+				continue;
+			
+			_out.write(s, start, i - start);
+			start = i + 1;
+			switch (c) {
+				case '"':
+					_out.write("\\\"");
+					break;
+				case '\\':
+					_out.write("\\\\");
+					break;
+				case '\n':
+					_out.write("\\n");
+					break;
+				case '\r':
+					_out.write("\\r");
+					break;
+				case '\t':
+					_out.write("\\t");
+					break;
+				default:
+					_out.write(String.format("\\u%04x", (int) c));
+			}
+		}
+		_out.write(s, start, s.length() - start);
+		_out.write('"');
+	}
+	
+}
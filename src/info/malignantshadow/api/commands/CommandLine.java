@@ -0,0 +1,135 @@
+package info.malignantshadow.api.commands;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * A command line split into tokens, remembering where each token is in the line. The tokens are the same as those of
+ * {@code line.split("\\s+")}, but the line itself is kept, so any run of tokens can be viewed with its original spacing without
+ * joining them again.
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ *
+ */
+final class CommandLine {
+	
+	private static final String[] NO_TOKENS = new String[0];
+	private static final int[] NO_OFFSETS = new int[0];
+	
+	private final String _line;
+	private final String[] _tokens;
+	private final int[] _starts;
+	
+	private CommandLine(String line, String[] tokens, int[] starts) {
+		_line = line;
+		_tokens = tokens;
+		_starts = starts;
+	}
+	
+	/**
+	 * Split a line on whitespace, like {@code line.split("\\s+")}: whitespace at the start of the line gives an empty first token, and
+	 * whitespace at the end is dropped.
+	 * 
+	 * @param line
+	 *            The line
+	 * @return The split line
+	 */
+	static CommandLine split(String line) {
+		int length = line.length();
+		String[] tokens = new String[8];
+		int[] starts = new int[8];
+		int count = 0;
+		int i = 0;
+		if (length > 0 && isWhitespace(line.charAt(0))) {
+			tokens[0] = "";
+			starts[0] = 0;
+			count = 1;
+		}
+		
+		while (i < length) {
+			while (i < length && isWhitespace(line.charAt(i)))
+				i++;
+			if (i == length)
+				break;
+			
+			int start = i;
+			while (i < length && !isWhitespace(line.charAt(i)))
+				i++;
+			if (count == tokens.length) {
+				tokens = Arrays.copyOf(tokens, count * 2);
+				starts = Arrays.copyOf(starts, count * 2);
+			}
+			tokens[count] = start == 0 && i == length ? line : line.substring(start, i);
+			starts[count] = start;
+			count++;
+		}
+		
+		if (length == 0)
+			return new CommandLine(line, new String[] { line }, new int[1]); // like split(), an empty line is one empty token
+		if (count == 1 && tokens[0].isEmpty())
+			return new CommandLine(line, NO_TOKENS, NO_OFFSETS); // only whitespace
+		return new CommandLine(line, Arrays.copyOf(tokens, count), Arrays.copyOf(starts, count));
+	}
+	
+	/*
+	 * The same characters as \s in a regular expression.
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+	
+	/**
+	 * Get the tokens. The array is shared, and must not be modified.
+	 * 
+	 * @return The tokens
+	 */
+	String[] getTokens() {
+		return _tokens;
+	}
+	
+	/**
+	 * Get the amount of tokens.
+	 * 
+	 * @return The amount of tokens
+	 */
+	int size() {
+		return _tokens.length;
+	}
+	
+	/**
+	 * Get a token.
+	 * 
+	 * @param index
+	 *            The index of the token
+	 * @return The token
+	 */
+	String get(int index) {
+		return _tokens[index];
+	}
+	
+	/**
+	 * View a run of tokens as they were in the line, including the whitespace between them. Nothing is copied.
+	 * 
+	 * @param from
+	 *            The index of the first token
+	 * @param to
+	 *            The index after the last token
+	 * @return The tokens, or an empty sequence if {@code from >= to}
+	 */
+	CharSequence slice(int from, int to) {
+		if (from >= to)
+			return "";
+		
+		int start = _starts[from];
+		int end = _starts[to - 1] + _tokens[to - 1].length();
+		if (start == 0 && end == _line.length())
+			return _line;
+		return CharBuffer.wrap(_line, start, end);
+	}
+	
+	@Override
+	public String toString() {
+		return _line;
+	}
+	
+}
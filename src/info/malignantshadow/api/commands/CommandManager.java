@@ -2,10 +2,17 @@ package info.malignantshadow.api.commands;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 
+import info.malignantshadow.api.commands.DispatchResult.Status;
+import info.malignantshadow.api.commands.SlowCommandLog.Phase;
 import info.malignantshadow.api.util.ListUtil;
 import info.malignantshadow.api.util.arguments.Argument;
 import info.malignantshadow.api.util.arguments.ArgumentTypes;
@@ -22,21 +29,52 @@ import info.malignantshadow.api.util.arguments.ParsedArgument;
 public class CommandManager {
 	
 	private List<Command> _commands;
+	private List<Command.Interceptor> _interceptors;
+	private Command.Interceptor[] _inherited;
+	private Executor _executor;
+	private DispatchScheduler _scheduler;
+	private DispatchScheduler _ownScheduler;
+	private long _timeout;
+	private ErrorReportingPolicy _errorPolicy;
+	private SlowCommandLog _slowLog;
+	private DispatchJournal _journal;
+	private CommandHistory _history;
+	private boolean _frozen;
+	private AliasTable _aliasTable;
+	private boolean _abbreviations;
+	private AliasIndex _aliasIndex;
+	private volatile CommandIndex _sorted;
 	
 	/**
 	 * Create a new {@link CommandManager}
 	 */
 	public CommandManager() {
 		_commands = new ArrayList<Command>();
+		_interceptors = new ArrayList<Command.Interceptor>();
+		_inherited = Command.NO_INTERCEPTORS;
+		_errorPolicy = new ErrorReportingPolicy();
 	}
 	
 	/**
-	 * Get all commands that have been added so far.
+	 * Get all commands that have been added so far. If this manager is {@link #isFrozen() frozen}, the list cannot be modified. If this
+	 * manager {@link #thatStaysSorted(Comparator) stays sorted}, the list is an unmodifiable copy, in order, that does not change when more
+	 * commands are added.
 	 * 
 	 * @return The commands
 	 */
 	public List<Command> getCommands() {
-		return _commands;
+		CommandIndex sorted = _sorted;
+		return sorted == null ? _commands : sorted.getCommands();
+	}
+	
+	/**
+	 * Remove all cached output of every command in this manager, including sub-commands.
+	 * 
+	 * @see Command#thatIsCacheable(long, TimeUnit)
+	 */
+	public void invalidateCaches() {
+		for (Command c : getCommands())
+			c.invalidateCache();
 	}
 	
 	/**
@@ -49,12 +87,226 @@ public class CommandManager {
 	 */
 	public List<Command> getVisibleCommands(CommandSender sender) {
 		List<Command> visible = new ArrayList<Command>();
-		for (Command c : _commands)
+		for (Command c : getCommands())
 			if (!c.shouldBeHidden())
 				visible.add(c);
 		return visible;
 	}
 	
+	/**
+	 * Set the {@link Executor} that command handlers are run on by {@link #dispatchAsync(CommandSender, String)}. Argument parsing and
+	 * validation still happen on the calling thread.
+	 * 
+	 * @param executor
+	 *            The executor, or {@code null} to run handlers on the calling thread
+	 * @return this
+	 */
+	public CommandManager withExecutor(Executor executor) {
+		_executor = executor;
+		return this;
+	}
+	
+	/**
+	 * Get the {@link Executor} that command handlers are run on by {@link #dispatchAsync(CommandSender, String)}.
+	 * 
+	 * @return The executor (may be null)
+	 */
+	public Executor getExecutor() {
+		return _executor;
+	}
+	
+	/**
+	 * Set the {@link DispatchScheduler} that command handlers are run on by {@link #dispatchAsync(CommandSender, String)}. Each dispatch
+	 * is queued in the scheduler's lane for its priority. When a scheduler is set, it is used instead of the {@link #getExecutor()
+	 * executor}.
+	 * 
+	 * <p>
+	 * The scheduler belongs to the caller, who must {@link DispatchScheduler#close() close} it when it is no longer used. A scheduler made
+	 * by {@link #withAdmissionQueue(int, int, OverflowPolicy)} is closed by this manager when it is replaced.
+	 * </p>
+	 * 
+	 * @param scheduler
+	 *            The scheduler, or {@code null} to use the executor
+	 * @return this
+	 */
+	public CommandManager withScheduler(DispatchScheduler scheduler) {
+		DispatchScheduler own = _ownScheduler;
+		_scheduler = scheduler;
+		if (own != null && own != scheduler) {
+			_ownScheduler = null;
+			own.close();
+		}
+		return this;
+	}
+	
+	/**
+	 * Get the {@link DispatchScheduler} that command handlers are run on by {@link #dispatchAsync(CommandSender, String)}.
+	 * 
+	 * @return The scheduler (may be null)
+	 */
+	public DispatchScheduler getScheduler() {
+		return _scheduler;
+	}
+	
+	/**
+	 * Run command handlers for {@link #dispatchAsync(CommandSender, String)} on worker threads fed by a single bounded queue. Commands are
+	 * found and their arguments are checked before they are queued, so a dispatch that cannot run fails before it takes up room. Like
+	 * {@code withScheduler(new DispatchScheduler(1, capacity, workers).withOverflowPolicy(policy))}, except that the scheduler belongs to
+	 * this manager: it is closed, after running what is already queued, when another scheduler or admission queue replaces it.
+	 * 
+	 * @param capacity
+	 *            How many dispatches can wait in the queue
+	 * @param workers
+	 *            The amount of worker threads
+	 * @param policy
+	 *            What to do when the queue is full
+	 * @return this
+	 * @see Command#withOverflowPolicy(OverflowPolicy)
+	 */
+	public CommandManager withAdmissionQueue(int capacity, int workers, OverflowPolicy policy) {
+		DispatchScheduler scheduler = new DispatchScheduler(1, capacity, workers)
+			.withOverflowPolicy(policy)
+			.withErrorReporting(_errorPolicy);
+		withScheduler(scheduler);
+		_ownScheduler = scheduler;
+		return this;
+	}
+	
+	/**
+	 * Set the execution deadline for commands dispatched by this manager. Commands may override this with
+	 * {@link Command#withTimeout(long, TimeUnit)}.
+	 * 
+	 * <p>
+	 * The deadline is visible to handlers through {@link CommandContext#isCancelled()}. When dispatching asynchronously, the deadline is
+	 * also enforced: the context is cancelled, the handler's thread is interrupted, and the returned future completes with a
+	 * {@link DispatchResult.Status#TIMED_OUT TIMED_OUT} result.
+	 * </p>
+	 * 
+	 * @param timeout
+	 *            The timeout, or {@code 0} for no timeout
+	 * @param unit
+	 *            The unit of {@code timeout}
+	 * @return this
+	 */
+	public CommandManager withTimeout(long timeout, TimeUnit unit) {
+		if (timeout < 0)
+			throw new IllegalArgumentException("timeout cannot be negative");
+		
+		_timeout = unit.toNanos(timeout);
+		return this;
+	}
+	
+	/**
+	 * Get the execution deadline for commands dispatched by this manager.
+	 * 
+	 * @param unit
+	 *            The unit of the returned value
+	 * @return The timeout, or {@code 0} if there is none
+	 */
+	public long getTimeout(TimeUnit unit) {
+		return unit.convert(_timeout, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Set how this manager reports failed dispatches. The policy is also given to this manager's {@link #withJournal(DispatchJournal)
+	 * journal} and {@link #withAdmissionQueue(int, int, OverflowPolicy) admission queue}.
+	 * 
+	 * @param policy
+	 *            The policy
+	 * @return this
+	 */
+	public CommandManager withErrorReporting(ErrorReportingPolicy policy) {
+		if (policy == null)
+			throw new IllegalArgumentException("policy cannot be null");
+		
+		_errorPolicy = policy;
+		DispatchJournal journal = _journal;
+		if (journal != null)
+			journal.withErrorReporting(policy);
+		DispatchScheduler scheduler = _ownScheduler;
+		if (scheduler != null)
+			scheduler.withErrorReporting(policy);
+		return this;
+	}
+	
+	/**
+	 * Get how this manager reports failed dispatches.
+	 * 
+	 * @return The policy
+	 */
+	public ErrorReportingPolicy getErrorReporting() {
+		return _errorPolicy;
+	}
+	
+	/**
+	 * Set the log that dispatches taking longer than its threshold are recorded in.
+	 * 
+	 * @param log
+	 *            The log, or {@code null} to stop timing dispatches
+	 * @return this
+	 */
+	public CommandManager withSlowCommandLog(SlowCommandLog log) {
+		_slowLog = log;
+		return this;
+	}
+	
+	/**
+	 * Get the log that slow dispatches are recorded in.
+	 * 
+	 * @return The log (may be null)
+	 */
+	public SlowCommandLog getSlowCommandLog() {
+		return _slowLog;
+	}
+	
+	/**
+	 * Set the journal that successful dispatches are recorded in. Failures to write the journal are reported to this manager's
+	 * {@link #withErrorReporting(ErrorReportingPolicy) error reporting policy}.
+	 * 
+	 * @param journal
+	 *            The journal, or {@code null} to stop recording dispatches
+	 * @return this
+	 */
+	public CommandManager withJournal(DispatchJournal journal) {
+		if (journal != null)
+			journal.withErrorReporting(_errorPolicy);
+		_journal = journal;
+		return this;
+	}
+	
+	/**
+	 * Get the journal that successful dispatches are recorded in.
+	 * 
+	 * @return The journal (may be null)
+	 */
+	public DispatchJournal getJournal() {
+		return _journal;
+	}
+	
+	/**
+	 * Set the history that dispatched commands are recorded in. While a manager has a history, a line dispatched as a whole that is
+	 * {@code !!}, {@code !n} or {@code !-n} runs a command from the sender's history again, without looking it up again (see
+	 * {@link CommandHistory}). A reference to a command that is not in the history is reported as
+	 * {@link DispatchResult.Status#NOT_FOUND NOT_FOUND}.
+	 * 
+	 * @param history
+	 *            The history, or {@code null} to stop recording commands
+	 * @return this
+	 */
+	public CommandManager withHistory(CommandHistory history) {
+		_history = history;
+		return this;
+	}
+	
+	/**
+	 * Get the history that dispatched commands are recorded in.
+	 * 
+	 * @return The history (may be null)
+	 */
+	public CommandHistory getHistory() {
+		return _history;
+	}
+	
 	/**
 	 * Does this command manager have a command with the given name/alias?
 	 * 
@@ -63,7 +315,7 @@ public class CommandManager {
 	 * @return <code>true</code> if a command has specified alias.
 	 */
 	public boolean hasCommandWithAlias(String alias) {
-		for (Command c : _commands)
+		for (Command c : getCommands())
 			if (c.hasAlias(alias))
 				return true;
 		return false;
@@ -76,17 +328,67 @@ public class CommandManager {
 	 *            The command to add
 	 * @return this
 	 * @throws CommandException
-	 *             If this manager already has a command with the given command's name or any of its aliases
+	 *             If this manager already has a command with the given command's name or any of its aliases, or this manager is
+	 *             {@link #isFrozen() frozen}
 	 */
-	public CommandManager push(Command command) {
+	public synchronized CommandManager push(Command command) {
+		checkNotFrozen();
 		for (String s : command.getAliases(true))
-			if (hasCommandWithAlias(s))
+			if (_sorted == null ? hasCommandWithAlias(s) : _sorted.get(s) != null)
 				throw new CommandException(String.format("A command with the alias '%s' already exists", s));
 			
-		_commands.add(command);
+		command.compose(Command.concat(_inherited, _interceptors));
+		if (_sorted == null)
+			_commands.add(command);
+		else
+			_sorted.add(command);
+		_aliasIndex = null;
 		return this;
 	}
 	
+	/**
+	 * Add a {@link Command.Interceptor Interceptor} to this manager. Interceptors added to a manager apply to every command in it, including
+	 * sub-commands, and run in the order they were added.
+	 * 
+	 * <p>
+	 * The interceptors are composed around each command's handler when the command is registered, so adding them should be done while
+	 * setting up the manager rather than during dispatch.
+	 * </p>
+	 * 
+	 * @param interceptor
+	 *            The interceptor to add
+	 * @return this
+	 * @see Command#withInterceptor(Command.Interceptor)
+	 */
+	public CommandManager withInterceptor(Command.Interceptor interceptor) {
+		if (interceptor == null)
+			throw new IllegalArgumentException("interceptor cannot be null");
+		checkNotFrozen();
+		
+		_interceptors.add(interceptor);
+		compose(_inherited);
+		return this;
+	}
+	
+	/**
+	 * Get the interceptors that were added to this manager (not including those of the managers or commands above it).
+	 * 
+	 * @return The interceptors
+	 */
+	public List<Command.Interceptor> getInterceptors() {
+		return Collections.unmodifiableList(_interceptors);
+	}
+	
+	/*
+	 * Re-compose the pipelines of all commands in this manager, given the interceptors of everything above it.
+	 */
+	void compose(Command.Interceptor[] inherited) {
+		_inherited = inherited;
+		Command.Interceptor[] chain = Command.concat(inherited, _interceptors);
+		for (Command c : getCommands())
+			c.compose(chain);
+	}
+	
 	private static String[] removeFirst(String[] args) {
 		if (args == null || args.length <= 1)
 			return new String[0];
@@ -111,7 +413,195 @@ public class CommandManager {
 	 * @return The command, or null if none was found.
 	 */
 	public Command getCommand(String name) {
-		return ListUtil.find(_commands, (command) -> command.hasAlias(name));
+		if (_abbreviations) {
+			Command cmd = getAliasIndex().find(name);
+			if (cmd != null)
+				return cmd;
+		}
+		
+		CommandIndex sorted = _sorted;
+		if (sorted != null) {
+			Command cmd = sorted.get(name);
+			if (cmd != null)
+				return cmd;
+		}
+		
+		List<Command> commands = getCommands();
+		for (int i = 0; i < commands.size(); i++) {
+			Command c = commands.get(i);
+			if (c.hasAlias(name))
+				return c;
+		}
+		return null;
+	}
+	
+	/**
+	 * Set whether commands may be abbreviated. If they may, a name that is not the name or alias of any command finds the only command
+	 * with a name or alias starting with it (ignoring case), so {@code inv} finds {@code inventory} as long as no other command starts with
+	 * {@code inv}. Dispatching a name that could be more than one command fails with {@link Status#AMBIGUOUS AMBIGUOUS}.
+	 * 
+	 * <p>
+	 * Names and abbreviations are both found by a binary search of this manager's aliases, so a command is found in O(log n) time whether
+	 * it is typed in full or not, and an exact name always wins over an abbreviation. The aliases are sorted the first time they are needed
+	 * after a command is added, so aliases should be added to a command before the command is added to the manager. This only applies to
+	 * this manager; sub-commands may be abbreviated if their own manager allows it.
+	 * </p>
+	 * 
+	 * @param abbreviations
+	 *            {@code true} to allow abbreviations
+	 * @return this
+	 */
+	public CommandManager withAbbreviations(boolean abbreviations) {
+		_abbreviations = abbreviations;
+		return this;
+	}
+	
+	/**
+	 * May commands in this manager be abbreviated?
+	 * 
+	 * @return {@code true} if abbreviations are allowed
+	 * @see #withAbbreviations(boolean)
+	 */
+	public boolean allowsAbbreviations() {
+		return _abbreviations;
+	}
+	
+	/**
+	 * Get the commands with a name or alias that starts with a prefix, ignoring case. This works whether or not
+	 * {@link #withAbbreviations(boolean) abbreviations} are allowed, for example to suggest commands while one is being typed.
+	 * 
+	 * @param prefix
+	 *            The prefix
+	 * @return The commands, sorted by the alias that matched
+	 */
+	public List<Command> getCommandsStartingWith(String prefix) {
+		return Arrays.asList(getAliasIndex().candidates(prefix));
+	}
+	
+	private AliasIndex getAliasIndex() {
+		List<Command> commands = getCommands();
+		AliasIndex index = _aliasIndex;
+		if (index == null || (_sorted != null && index.getSource() != commands))
+			_aliasIndex = index = new AliasIndex(commands);
+		return index;
+	}
+	
+	/*
+	 * If a label is an abbreviation of more than one command of a manager, get the names of those commands to report it.
+	 */
+	static String getAmbiguity(CommandManager manager, String label) {
+		if (manager == null || !manager.allowsAbbreviations())
+			return null;
+		
+		List<Command> candidates = manager.getCommandsStartingWith(label);
+		if (candidates.size() < 2)
+			return null;
+		
+		StringBuilder sb = new StringBuilder();
+		for (Command c : candidates) {
+			if (sb.length() > 0)
+				sb.append(", ");
+			sb.append(c.getName());
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Freeze this manager and every command in it, including sub-commands. A frozen manager uses less memory: names and descriptions are
+	 * interned, commands with the same names and arguments share them, and the spare capacity of every list is dropped. Looking up
+	 * commands does not allocate. Commands and interceptors can no longer be added to a frozen manager, and its commands can no longer be
+	 * changed (see {@link Command#freeze()}).
+	 * 
+	 * <p>
+	 * Freezing is meant for very large registries that are built once and then only dispatched to. It should be done after the manager is
+	 * set up and before it is shared between threads.
+	 * </p>
+	 * 
+	 * @return this
+	 * @see #freezeAll(Collection)
+	 */
+	public CommandManager freeze() {
+		freeze(new CommandInterner());
+		return this;
+	}
+	
+	/**
+	 * Freeze several managers at once. Unlike freezing them one by one, the managers share names, descriptions and argument lists with each
+	 * other, which saves more memory when they hold copies of the same commands.
+	 * 
+	 * @param managers
+	 *            The managers to freeze
+	 * @see #freeze()
+	 */
+	public static void freezeAll(Collection<CommandManager> managers) {
+		CommandInterner interner = new CommandInterner();
+		for (CommandManager m : managers)
+			m.freeze(interner);
+	}
+	
+	void freeze(CommandInterner interner) {
+		if (_frozen)
+			return;
+		
+		_frozen = true;
+		List<Command> commands = getCommands();
+		for (Command c : commands)
+			c.freeze(interner);
+		_commands = Collections.unmodifiableList(Arrays.asList(commands.toArray(new Command[commands.size()])));
+		_sorted = null;
+		_interceptors = _interceptors.isEmpty() ? Collections.<Command.Interceptor> emptyList()
+			: Collections.unmodifiableList(Arrays.asList(_interceptors.toArray(new Command.Interceptor[_interceptors.size()])));
+	}
+	
+	/**
+	 * Set whether commands are resolved with alias tables built for this manager's tree. Enabling them {@link #freeze() freezes} this
+	 * manager, and then builds a table of the aliases of each manager in the tree, keyed by a hash that is computed ahead of time, so
+	 * resolving a command takes one hash and one comparison per level instead of checking the aliases of each command in turn. Only finding
+	 * the command changes; it is parsed and run as usual. Disabling them goes back to the regular lookup, which is also always used by
+	 * {@link #getCommandInfo(String, String[])}.
+	 * 
+	 * <p>
+	 * Managers in the tree that override {@link #getCommand(String)} or {@link #getCommandInfo(String, String[])} are still asked for their
+	 * commands, so the tables never change which command is dispatched.
+	 * </p>
+	 * 
+	 * @param aliasTables
+	 *            {@code true} to build the tables, {@code false} to use the regular lookup
+	 * @return this
+	 */
+	public CommandManager withAliasTables(boolean aliasTables) {
+		if (aliasTables) {
+			freeze();
+			if (_aliasTable == null)
+				_aliasTable = AliasTable.build(this);
+		} else
+			_aliasTable = null;
+		return this;
+	}
+	
+	/**
+	 * Are commands resolved with alias tables?
+	 * 
+	 * @return {@code true} if alias tables are used
+	 * @see #withAliasTables(boolean)
+	 */
+	public boolean hasAliasTables() {
+		return _aliasTable != null;
+	}
+	
+	/**
+	 * Is this manager frozen?
+	 * 
+	 * @return {@code true} if commands can no longer be added to this manager
+	 * @see #freeze()
+	 */
+	public boolean isFrozen() {
+		return _frozen;
+	}
+	
+	private void checkNotFrozen() {
+		if (_frozen)
+			throw new CommandException("This command manager is frozen and cannot be changed");
 	}
 	
 	/**
@@ -159,7 +649,7 @@ public class CommandManager {
 	 * @return A {@link CommandInfo} object representing a command the user is trying to run.
 	 */
 	public CommandInfo getCommandInfo(String fullCommand) {
-		return getCommandInfo(fullCommand.split("\\s+"));
+		return getCommandInfo(CommandLine.split(fullCommand).getTokens());
 	}
 	
 	/**
@@ -192,25 +682,27 @@ public class CommandManager {
 		if (cmd == null)
 			return null;
 		
-		CommandManager nested = cmd.getNestedManager();
+		CommandGeneration generation = cmd.getGeneration();
+		CommandGeneration[] generations = null;
 		String fullCmdPath = command;
 		String[] contextArgs = args;
 		
 		for (int i = 0; i < args.length; i++) {
-			if (nested != null) {
+			if (generation != null) {
 				String label = contextArgs[0];
-				Command tmpCmd = nested.getCommand(label);
+				Command tmpCmd = generation.getManager().getCommand(label);
 				if (tmpCmd == null) // if a sub-command isn't found, break from the loop and use current arguments for the handler
 					break;
+				generations = CommandGeneration.add(generations, generation);
 				cmd = tmpCmd;
 				fullCmdPath += " " + label;
 				contextArgs = removeFirst(contextArgs);
-				nested = cmd.getNestedManager();
+				generation = cmd.getGeneration();
 			} else // if there are no sub-commands, break and use current arguments for the handler
 				break;
 		}
 		
-		return new CommandInfo(fullCmdPath, cmd, contextArgs);
+		return new CommandInfo(fullCmdPath, cmd, contextArgs, generations);
 	}
 	
 	/**
@@ -222,9 +714,10 @@ public class CommandManager {
 	 * @param fullCommand
 	 *            The command
 	 * @return <code>true</code> if the command was dispatched successfully, <code>false</code> otherwise.
+	 * @see #dispatchForResult(CommandSender, String)
 	 */
 	public boolean dispatch(CommandSender sender, String fullCommand) {
-		return dispatch(sender, fullCommand.split("\\s+"));
+		return dispatchForResult(sender, fullCommand).isSuccess();
 	}
 	
 	/**
@@ -235,14 +728,10 @@ public class CommandManager {
 	 * @param args
 	 *            The command name and arguments
 	 * @return <code>true</code> if the command was dispatched successfully, <code>false</code> otherwise.
+	 * @see #dispatchForResult(CommandSender, String[])
 	 */
 	public boolean dispatch(CommandSender sender, String[] args) {
-		if (args == null || args.length == 0)
-			return false;
-		
-		String command = args[0];
-		args = removeFirst(args);
-		return dispatch(sender, command, args);
+		return dispatchForResult(sender, args).isSuccess();
 	}
 	
 	/**
@@ -255,15 +744,10 @@ public class CommandManager {
 	 * @param args
 	 *            The unparsed arguments to the command
 	 * @return <code>true</code> if the command was dispatched successfully, <code>false</code> otherwise.
+	 * @see #dispatchForResult(CommandSender, String, String[])
 	 */
 	public boolean dispatch(CommandSender sender, String command, String[] args) {
-		CommandInfo info = getCommandInfo(command, args);
-		if (info == null) {
-			sender.printErr("[CommandErr] <%s> - Not found", command);
-			return false;
-		}
-		
-		return dispatch(sender, info.getCommand(), info.getFullCommand(), info.getArgs());
+		return dispatchForResult(sender, command, args).isSuccess();
 	}
 	
 	/**
@@ -278,41 +762,413 @@ public class CommandManager {
 	 * @param args
 	 *            The arguments to give the command
 	 * @return {@code true} if the command was dispatched successfully, {@code false} otherwise.
+	 * @see #dispatchForResult(CommandSender, Command, String, String[])
 	 */
 	public boolean dispatch(CommandSender sender, Command cmd, String cmdPrefix, String[] args) {
+		return dispatchForResult(sender, cmd, cmdPrefix, args).isSuccess();
+	}
+	
+	/**
+	 * Dispatch a command, and describe the outcome. <code>fullCommand</code> will be split by any whitespace, and passed to
+	 * {@link #dispatchForResult(CommandSender, String[])}.
+	 * 
+	 * <p>
+	 * Failures are reported according to this manager's {@link #getErrorReporting() error reporting policy}.
+	 * </p>
+	 * 
+	 * @param sender
+	 *            Who is sending the command
+	 * @param fullCommand
+	 *            The command
+	 * @return The result of the dispatch
+	 */
+	public DispatchResult dispatchForResult(CommandSender sender, String fullCommand) {
+		DispatchResult result = newResult(sender);
+		CommandContext context = prepare(result, fullCommand);
+		return context == null ? result : report(execute(result, context));
+	}
+	
+	/**
+	 * Dispatch a command, and describe the outcome. The first item in the specified array is the name of the command to run.
+	 * 
+	 * @param sender
+	 *            Who is sending the command
+	 * @param args
+	 *            The command name and arguments
+	 * @return The result of the dispatch
+	 */
+	public DispatchResult dispatchForResult(CommandSender sender, String[] args) {
+		DispatchResult result = newResult(sender);
+		CommandContext context = prepare(result, args);
+		return context == null ? result : report(execute(result, context));
+	}
+	
+	/**
+	 * Dispatch a command, and describe the outcome.
+	 * 
+	 * @param sender
+	 *            Who is sending the command
+	 * @param command
+	 *            The name/alias of the command to run
+	 * @param args
+	 *            The unparsed arguments to the command
+	 * @return The result of the dispatch
+	 */
+	public DispatchResult dispatchForResult(CommandSender sender, String command, String[] args) {
+		DispatchResult result = newResult(sender);
+		CommandContext context = prepare(result, command, args);
+		return context == null ? result : report(execute(result, context));
+	}
+	
+	/**
+	 * Dispatch a command, and describe the outcome.
+	 * 
+	 * @param sender
+	 *            Who is sending the command
+	 * @param cmd
+	 *            The command to dispatch
+	 * @param cmdPrefix
+	 *            The prefix to the command. This is the full command string up to and including the command's name.
+	 * @param args
+	 *            The arguments to give the command
+	 * @return The result of the dispatch
+	 */
+	public DispatchResult dispatchForResult(CommandSender sender, Command cmd, String cmdPrefix, String[] args) {
+		DispatchResult result = newResult(sender);
+		CommandContext context = prepare(result, cmd, cmdPrefix, args);
+		return context == null ? result : report(execute(result, context));
+	}
+	
+	/**
+	 * Dispatch a command asynchronously. <code>fullCommand</code> will be split by any whitespace, and passed to
+	 * {@link #dispatchAsync(CommandSender, String[])}.
+	 * 
+	 * @param sender
+	 *            Who is sending the command
+	 * @param fullCommand
+	 *            The command
+	 * @return A future that completes with the result of the dispatch
+	 * @see #withExecutor(Executor)
+	 * @see #withTimeout(long, TimeUnit)
+	 */
+	public CompletableFuture<DispatchResult> dispatchAsync(CommandSender sender, String fullCommand) {
+		DispatchResult result = newResult(sender);
+		return dispatchAsync(result, prepare(result, fullCommand));
+	}
+	
+	/**
+	 * Dispatch a command asynchronously. The command is found and its arguments are parsed on the calling thread, and the handler is run on
+	 * this manager's {@link #getScheduler() scheduler} or {@link #getExecutor() executor}. If there is neither, the handler is run on the
+	 * calling thread.
+	 * 
+	 * <p>
+	 * If the command does not finish before its deadline, the future completes with a {@link DispatchResult.Status#TIMED_OUT TIMED_OUT}
+	 * result. If it could not be queued, the future completes with a {@link DispatchResult.Status#SHED SHED} result.
+	 * </p>
+	 * 
+	 * @param sender
+	 *            Who is sending the command
+	 * @param args
+	 *            The command name and arguments
+	 * @return A future that completes with the result of the dispatch
+	 */
+	public CompletableFuture<DispatchResult> dispatchAsync(CommandSender sender, String[] args) {
+		DispatchResult result = newResult(sender);
+		return dispatchAsync(result, prepare(result, args));
+	}
+	
+	/**
+	 * Dispatch a stream of commands. Commands are requested from the publisher only while fewer than {@code maxInFlight} of them are
+	 * running or waiting for their result to be delivered, and each is dispatched with {@link #dispatchAsync(CommandSender, String)}.
+	 * 
+	 * @param requests
+	 *            The commands and who sent them
+	 * @param maxInFlight
+	 *            The largest amount of commands running or waiting for their result to be delivered
+	 * @return A publisher of the results, in the same order as the requests. It supports a single subscriber.
+	 * @see DispatchProcessor
+	 */
+	public Flow.Publisher<DispatchResult> dispatchAll(Flow.Publisher<CommandRequest> requests, int maxInFlight) {
+		DispatchProcessor processor = new DispatchProcessor(this, maxInFlight);
+		requests.subscribe(processor);
+		return processor;
+	}
+	
+	/**
+	 * Dispatch a stream of commands that all have the same sender. Equivalent to {@link #dispatchAll(Flow.Publisher, int)} with a
+	 * {@link CommandRequest} for each line.
+	 * 
+	 * @param lines
+	 *            The commands
+	 * @param sender
+	 *            Who is sending the commands
+	 * @param maxInFlight
+	 *            The largest amount of commands running or waiting for their result to be delivered
+	 * @return A publisher of the results, in the same order as the lines. It supports a single subscriber.
+	 */
+	public Flow.Publisher<DispatchResult> dispatchAll(Flow.Publisher<String> lines, CommandSender sender, int maxInFlight) {
+		return dispatchAll(DispatchProcessor.fromLines(lines, sender), maxInFlight);
+	}
+	
+	private CompletableFuture<DispatchResult> dispatchAsync(DispatchResult result, CommandContext context) {
+		if (context == null)
+			return CompletableFuture.completedFuture(result);
+		
+		Command cmd = context.getCommand();
+		DispatchScheduler scheduler = _scheduler;
+		if (scheduler != null) {
+			AsyncDispatch task = new AsyncDispatch(this, result, context, getTimeout(cmd));
+			task.start(scheduler.getLaneFor(getPriority(context)), cmd.getOverflowPolicy());
+			return task.getFuture();
+		}
+		
+		Executor executor = _executor;
+		if (executor == null)
+			return CompletableFuture.completedFuture(report(execute(result, context)));
+		
+		AsyncDispatch task = new AsyncDispatch(this, result, context, getTimeout(cmd));
+		task.start(executor);
+		return task.getFuture();
+	}
+	
+	private static int getPriority(CommandContext context) {
+		CommandSender sender = context.getSender();
+		return Math.max(context.getCommand().getPriority(), sender == null ? 0 : sender.getPriority());
+	}
+	
+	private long getTimeout(Command cmd) {
+		long timeout = cmd.getTimeout(TimeUnit.NANOSECONDS);
+		return timeout == 0 ? _timeout : timeout;
+	}
+	
+	/*
+	 * The methods below make up the dispatch pipeline: find the command, create and validate its context, and run it.
+	 * Each prepare method returns null if the dispatch failed, in which case the result has already been completed and reported.
+	 * Every phase is timed by a flight recorder event (see DispatchEvents).
+	 */
+	
+	private DispatchResult newResult(CommandSender sender) {
+		DispatchResult result = new DispatchResult(sender);
+		SlowCommandLog log = _slowLog;
+		if (log != null)
+			result.startTiming(log.samplePhases());
+		return result;
+	}
+	
+	private static String[] split(DispatchResult result, String fullCommand) {
+		DispatchEvents.Split event = new DispatchEvents.Split();
+		event.begin();
+		CommandLine line = CommandLine.split(fullCommand);
+		String[] args = line.getTokens();
+		result.setLine(line);
+		result.mark(Phase.SPLIT);
+		event.report(result.getSender(), args.length == 0 ? null : args[0], args.length, null);
+		return args;
+	}
+	
+	private CommandContext prepare(DispatchResult result, String fullCommand) {
+		CommandHistory history = _history;
+		if (history == null || !CommandHistory.isReference(fullCommand))
+			return prepare(result, split(result, fullCommand));
+		
+		CommandSender sender = result.getSender();
+		CommandHistory.Entry entry = sender == null ? null : history.find(sender, fullCommand);
+		if (entry == null) {
+			report(result.complete(Status.NOT_FOUND, fullCommand));
+			return null;
+		}
+		
+		CommandGeneration[] generations = entry.getGenerations();
+		if (!CommandGeneration.enter(generations)) // the sub-commands were reloaded since, so the command may have changed
+			return prepare(result, split(result, entry.getLine()));
+		
+		if (entry.line() != null)
+			result.setLine(entry.line());
+		CommandContext context = prepare(result, entry.getCommand(), entry.getCommandPrefix(), entry.args());
+		if (context == null) {
+			CommandGeneration.exit(generations);
+			return null;
+		}
+		
+		context.pin(generations);
+		history.record(sender, entry);
+		return context;
+	}
+	
+	private CommandContext prepare(DispatchResult result, String[] args) {
+		if (args == null || args.length == 0) {
+			report(result.complete(Status.EMPTY));
+			return null;
+		}
+		
+		return prepare(result, args[0], removeFirst(args));
+	}
+	
+	private CommandContext prepare(DispatchResult result, String command, String[] args) {
+		DispatchEvents.Resolve event = new DispatchEvents.Resolve();
+		event.begin();
+		AliasTable table = _aliasTable;
+		CommandInfo info;
+		do // resolve again if one of the generations of sub-commands was replaced before it could be pinned
+			info = table == null ? getCommandInfo(command, args) : table.resolve(command, args);
+		while (info != null && !CommandGeneration.enter(info.getGenerations()));
+		result.mark(Phase.RESOLVE);
+		if (info == null) {
+			String ambiguity = getAmbiguity(this, command);
+			Status status = ambiguity == null ? Status.NOT_FOUND : Status.AMBIGUOUS;
+			event.report(result.getSender(), command, args == null ? 0 : args.length, status);
+			report(result.complete(status, command, ambiguity));
+			return null;
+		}
+		
+		// a label after the command that could be more than one sub-command is not passed to the command as an argument
+		String[] rest = info.getArgs();
+		String ambiguity = rest.length == 0 ? null : getAmbiguity(info.getCommand().getNestedManager(), rest[0]);
+		if (ambiguity != null) {
+			CommandGeneration.exit(info.getGenerations());
+			String label = info.getFullCommand() + " " + rest[0];
+			event.report(result.getSender(), label, rest.length - 1, Status.AMBIGUOUS);
+			report(result.complete(Status.AMBIGUOUS, label, ambiguity));
+			return null;
+		}
+		
+		event.report(result.getSender(), info.getFullCommand(), info.getArgs().length, null);
+		CommandContext context = prepare(result, info.getCommand(), info.getFullCommand(), info.getArgs());
+		if (context == null) {
+			CommandGeneration.exit(info.getGenerations());
+			return null;
+		}
+		
+		context.pin(info.getGenerations());
+		CommandHistory history = _history;
+		if (history != null && result.getSender() != null)
+			history.record(result.getSender(), new CommandHistory.Entry(info.getCommand(), info.getFullCommand(), info.getArgs(),
+				info.getGenerations(), result.getLine()));
+		return context;
+	}
+	
+	private CommandContext prepare(DispatchResult result, Command cmd, String cmdPrefix, String[] args) {
+		CommandSender sender = result.getSender();
+		int argCount = args == null ? 0 : args.length;
+		result.resolved(cmd, cmdPrefix, argCount);
+		
+		DispatchEvents.Parse parse = new DispatchEvents.Parse();
+		parse.begin();
 		CommandContext context = createContext(sender, cmd, cmdPrefix, args);
+		if (context != null && result.getLine() != null)
+			context.setLine(result.getLine(), args == null ? new String[0] : args);
 		contextWasCreated(context);
+		result.mark(Phase.PARSE);
 		if (context == null) {
-			sender.printErr("[CommandErr] '%s' - Expected at least %d argument(s), but got %d", cmdPrefix, cmd.getArguments().getMinimum(), args.length);
-			return false;
+			parse.report(sender, cmdPrefix, argCount, Status.NOT_ENOUGH_ARGUMENTS);
+			report(result.complete(Status.NOT_ENOUGH_ARGUMENTS, cmdPrefix, cmd.arguments().getMinimum(), argCount));
+			return null;
 		}
+		parse.report(sender, cmdPrefix, argCount, null);
 		
+		result.created(context);
+		DispatchEvents.Validate validate = new DispatchEvents.Validate();
+		validate.begin();
 		for (ParsedArgument a : context.getParsedArgs()) {
 			Argument arg = a.getArgument();
 			if (arg.isRequired() && !arg.canBeNull() && a.getValue() == null) {
-				sender.printErr("[CommandErr] '%s' - Invalid input for argument '%s': \"%s\"", cmdPrefix, arg.getDisplay(), a.getInput());
-				return false;
+				validate.report(sender, cmdPrefix, argCount, Status.INVALID_ARGUMENT);
+				report(result.complete(Status.INVALID_ARGUMENT, cmdPrefix, arg.getDisplay(), a.getInput()));
+				return null;
 			}
 		}
+		result.mark(Phase.VALIDATE);
+		validate.report(sender, cmdPrefix, argCount, null);
 		
-		if (commandWillDispatch(cmd, context)) {
-			try {
-				if (!context.dispatchSelf())
-					return false;
-			} catch (Exception e) {
-				e.printStackTrace();
-				
-				//to the programmer, error != exception, however most users do not know that, and may not even know what the word "exception" means in this context
-				//therefore, the more user-friendly word error is used.
-				context.printErr("An error occurred while running this command");
-				return false;
-			}
-			// moved out of try/catch to prevent confusion of the above error, i.e. if an exception occurred
-			// during commandDidDispatch() and not handler.handleCommand()
-			commandDidDispatch(cmd, context);
-			return true;
+		long timeout = getTimeout(cmd);
+		if (timeout > 0)
+			context.setDeadline(System.nanoTime() + timeout);
+		return context;
+	}
+	
+	/*
+	 * Run a prepared context through commandWillDispatch, the handler and commandDidDispatch, and journal it if it succeeded. The result
+	 * is not reported.
+	 */
+	DispatchResult execute(DispatchResult result, CommandContext context) {
+		return journal(handle(result, context), context);
+	}
+	
+	/*
+	 * Run a prepared context like execute, but without journaling it.
+	 */
+	DispatchResult handle(DispatchResult result, CommandContext context) {
+		DispatchEvents.Handle event = new DispatchEvents.Handle();
+		event.begin();
+		try {
+			execute0(result, context);
+		} finally {
+			context.release();
 		}
-		return false;
+		result.mark(Phase.HANDLE);
+		event.report(result.getSender(), result.getCommandPrefix(), result.getArgumentCount(), result.getStatus());
+		return result;
+	}
+	
+	/*
+	 * Journal a context if its result is a success.
+	 */
+	DispatchResult journal(DispatchResult result, CommandContext context) {
+		DispatchJournal journal = _journal;
+		if (journal != null && result.isSuccess())
+			journal.append(context);
+		return result;
+	}
+	
+	private DispatchResult execute0(DispatchResult result, CommandContext context) {
+		Command cmd = context.getCommand();
+		if (!commandWillDispatch(cmd, context))
+			return result.complete(Status.REJECTED);
+		
+		try {
+			if (!context.dispatchSelf())
+				return result.complete(Status.NO_HANDLER);
+		} catch (Exception e) {
+			return result.failed(e);
+		}
+		if (context.wasIntercepted())
+			return result.complete(Status.INTERCEPTED);
+		// moved out of try/catch to prevent confusion of the above error, i.e. if an exception occurred
+		// during commandDidDispatch() and not handler.handleCommand()
+		commandDidDispatch(cmd, context);
+		return result.complete(Status.SUCCESS);
+	}
+	
+	/*
+	 * Report a completed result according to the error reporting policy, and log it if it was slow.
+	 */
+	DispatchResult report(DispatchResult result) {
+		SlowCommandLog log = _slowLog;
+		if (log != null && result.isTimed()) {
+			result.finish();
+			log.record(result);
+		}
+		
+		if (result.isSuccess())
+			return result;
+		
+		ErrorReportingPolicy policy = _errorPolicy;
+		Throwable error = result.getError();
+		if (error != null) {
+			policy.reportError(result.getCommand(), error);
+			if (!policy.capturesErrors())
+				result.clearError();
+		}
+		
+		CommandSender sender = result.getSender();
+		if (sender != null && policy.notifiesSender()) {
+			//to the programmer, error != exception, however most users do not know that, and may not even know what the word "exception" means in this context
+			//therefore, the more user-friendly word error is used for Status.ERROR.
+			String message = result.getMessage();
+			if (message != null)
+				sender.printErr(message);
+		}
+		return result;
 	}
 	
 	/**
@@ -395,7 +1251,7 @@ public class CommandManager {
 						
 						context.print((helpList.formatFullCommand(fullCmdPath) + " ").trim() + helpList.formatSimpleCommand(helpCommand));
 						
-						for (Argument c : helpCommand.getArguments()) {
+						for (Argument c : helpCommand.arguments()) {
 							String argString = helpList.formatArg(c.getDisplay(), c.isRequired());
 							argString += " " + helpList.formatDescription(c.getDescription());
 							context.print("  " + argString.trim());
@@ -445,9 +1301,74 @@ public class CommandManager {
 	 *            A {@link Comparator} used to determine how the commands are sorted.
 	 * @return this
 	 */
-	public CommandManager sortSelf(Comparator<Command> sortFunc) {
-		Collections.sort(_commands, sortFunc);
+	public synchronized CommandManager sortSelf(Comparator<Command> sortFunc) {
+		checkNotFrozen();
+		if (_sorted != null) {
+			CommandIndex sorted = new CommandIndex(sortFunc);
+			sorted.addAll(_sorted.getCommands());
+			_sorted = sorted;
+		} else
+			Collections.sort(_commands, sortFunc);
+		_aliasIndex = null;
 		return this;
 	}
 	
+	/**
+	 * Keep the commands sorted by their names as they are added.
+	 * 
+	 * @return this
+	 * @see #thatStaysSorted(Comparator)
+	 */
+	public CommandManager thatStaysSorted() {
+		return thatStaysSorted((Command a, Command b) -> a.getName().compareTo(b.getName()));
+	}
+	
+	/**
+	 * Keep the commands sorted as they are added, instead of sorting them again with {@link #sortSelf(Comparator)} after each one. Each
+	 * command is put in its place when it is {@link #push(Command) pushed}, in O(log n) time, so {@link #getCommands()},
+	 * {@link #getVisibleCommands(CommandSender)} and {@link #getHelpListing(String, CommandSender)} are always in order without sorting,
+	 * and threads reading the commands while others are added never see them half sorted. Commands that {@code order} considers equal stay
+	 * in the order they were added.
+	 * 
+	 * <p>
+	 * {@link #getCommands()} then returns an unmodifiable copy of the commands, which is shared until the next command is added.
+	 * {@link #sortSelf(Comparator)} changes the order that is kept. Commands are also found by their names and aliases in O(log n) time,
+	 * so aliases should be added to a command before it is pushed.
+	 * </p>
+	 * 
+	 * @param order
+	 *            How the commands are sorted, or {@code null} to stop keeping them sorted (they stay in their current order)
+	 * @return this
+	 * @throws CommandException
+	 *             If this manager is {@link #isFrozen() frozen}
+	 */
+	public synchronized CommandManager thatStaysSorted(Comparator<Command> order) {
+		checkNotFrozen();
+		List<Command> commands = getCommands();
+		if (order == null) {
+			if (_sorted != null) {
+				_commands.clear();
+				_commands.addAll(commands);
+				_sorted = null;
+			}
+		} else {
+			CommandIndex sorted = new CommandIndex(order);
+			sorted.addAll(commands);
+			_sorted = sorted;
+		}
+		_aliasIndex = null;
+		return this;
+	}
+	
+	/**
+	 * Get how this manager keeps its commands sorted.
+	 * 
+	 * @return The order, or {@code null} if the commands are kept in the order they were added
+	 * @see #thatStaysSorted(Comparator)
+	 */
+	public Comparator<Command> getSortOrder() {
+		CommandIndex sorted = _sorted;
+		return sorted == null ? null : sorted.getOrder();
+	}
+	
 }
@@ -0,0 +1,54 @@
+package info.malignantshadow.api.commands;
+
+/**
+ * A command line and who sent it, for dispatching commands from a stream.
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ * @see CommandManager#dispatchAll(java.util.concurrent.Flow.Publisher, int)
+ *
+ */
+public class CommandRequest {
+	
+	private CommandSender _sender;
+	private String _line;
+	
+	/**
+	 * Construct a new CommandRequest.
+	 * 
+	 * @param sender
+	 *            Who is sending the command
+	 * @param line
+	 *            The command
+	 */
+	public CommandRequest(CommandSender sender, String line) {
+		if (line == null)
+			throw new IllegalArgumentException("line cannot be null");
+		
+		_sender = sender;
+		_line = line;
+	}
+	
+	/**
+	 * Get who is sending the command.
+	 * 
+	 * @return The sender
+	 */
+	public CommandSender getSender() {
+		return _sender;
+	}
+	
+	/**
+	 * Get the command.
+	 * 
+	 * @return The command line
+	 */
+	public String getLine() {
+		return _line;
+	}
+	
+	@Override
+	public String toString() {
+		return "CommandRequest{sender=" + (_sender == null ? null : _sender.getName()) + ", line=" + _line + "}";
+	}
+	
+}
@@ -8,6 +8,25 @@ package info.malignantshadow.api.commands;
  */
 public class CommandSender {
 	
+	/**
+	 * Get the name of this command sender, used to identify it in logs. By default, this returns {@code "Console"}.
+	 * 
+	 * @return The name of this sender
+	 */
+	public String getName() {
+		return "Console";
+	}
+	
+	/**
+	 * Get the priority of commands sent by this sender, used to pick a {@link DispatchScheduler} lane. A command is queued with the higher
+	 * of this and its own {@link Command#withPriority(int) priority}. By default, this returns {@code 0} (the lowest priority).
+	 * 
+	 * @return The priority of this sender
+	 */
+	public int getPriority() {
+		return 0;
+	}
+	
 	/**
 	 * Print the object to this command sender.
 	 * 
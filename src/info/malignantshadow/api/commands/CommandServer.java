@@ -0,0 +1,578 @@
+package info.malignantshadow.api.commands;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves a {@link CommandManager} over a TCP or Unix-domain socket. Each line received is dispatched as a command, with a
+ * {@link SocketCommandSender} for the connection as the sender.
+ * 
+ * <p>
+ * All connections are handled by a single selector thread, so idle connections do not need a thread (or a buffer) of their own. Commands
+ * are dispatched with {@link CommandManager#dispatchAsync(CommandSender, String)} on the server's executor, one at a time per connection,
+ * and the output is written back by the selector thread using pooled direct buffers.
+ * </p>
+ * 
+ * <p>
+ * A client that does not read its output as fast as its commands produce it is not allowed to make the server hold an unbounded amount
+ * of it: once a connection has {@link #withMaxQueuedOutput(int) too much output} waiting, the server stops reading from it until the
+ * output has been written, and a connection whose waiting output grows to twice that is closed.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ * @see CommandClient
+ *
+ */
+public class CommandServer implements Closeable {
+	
+	private CommandManager _manager;
+	private SocketAddress _address;
+	private Executor _executor;
+	private ExecutorService _ownedExecutor;
+	private int _maxLineLength, _bufferSize, _maxPooledBuffers, _maxQueuedOutput;
+	private BufferPool _buffers;
+	private Selector _selector;
+	private ServerSocketChannel _server;
+	private Thread _thread;
+	private volatile boolean _running;
+	private Queue<Connection> _writable;
+	private AtomicInteger _connections;
+	
+	/**
+	 * Construct a new CommandServer. The server does not accept connections until {@link #start()} is called.
+	 * 
+	 * @param manager
+	 *            The manager to dispatch commands to
+	 * @param address
+	 *            The address to listen on. This may be an {@link java.net.InetSocketAddress InetSocketAddress} or a
+	 *            {@link UnixDomainSocketAddress}.
+	 */
+	public CommandServer(CommandManager manager, SocketAddress address) {
+		_manager = manager;
+		_address = address;
+		_maxLineLength = 64 * 1024;
+		_bufferSize = 8 * 1024;
+		_maxPooledBuffers = 256;
+		_maxQueuedOutput = 1024 * 1024;
+		_writable = new ConcurrentLinkedQueue<Connection>();
+		_connections = new AtomicInteger();
+	}
+	
+	/**
+	 * Set the {@link Executor} that commands are dispatched on. If none is set, the server uses a fixed pool with one thread per
+	 * processor, which is shut down when the server is closed.
+	 * 
+	 * @param executor
+	 *            The executor
+	 * @return this
+	 */
+	public CommandServer withExecutor(Executor executor) {
+		_executor = executor;
+		return this;
+	}
+	
+	/**
+	 * Set the longest line (in bytes) a client may send. Clients that send longer lines are disconnected. (Default: 64 KiB)
+	 * 
+	 * @param maxLineLength
+	 *            The maximum line length
+	 * @return this
+	 */
+	public CommandServer withMaxLineLength(int maxLineLength) {
+		if (maxLineLength <= 0)
+			throw new IllegalArgumentException("maxLineLength must be positive");
+		
+		_maxLineLength = maxLineLength;
+		return this;
+	}
+	
+	/**
+	 * Set how much output (in bytes) may wait to be written to a connection before the server stops reading from it. A connection with
+	 * twice this much output waiting is closed. (Default: 1 MiB)
+	 * 
+	 * @param maxQueuedOutput
+	 *            The maximum amount of output
+	 * @return this
+	 */
+	public CommandServer withMaxQueuedOutput(int maxQueuedOutput) {
+		if (maxQueuedOutput <= 0)
+			throw new IllegalArgumentException("maxQueuedOutput must be positive");
+		
+		_maxQueuedOutput = maxQueuedOutput;
+		return this;
+	}
+	
+	/**
+	 * Set the size of the direct buffers used for socket I/O, and how many free buffers are kept for reuse. (Default: 8 KiB, 256)
+	 * 
+	 * @param bufferSize
+	 *            The size of each buffer
+	 * @param maxPooled
+	 *            The maximum amount of free buffers to keep
+	 * @return this
+	 */
+	public CommandServer withBuffers(int bufferSize, int maxPooled) {
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("bufferSize must be positive");
+		
+		_bufferSize = bufferSize;
+		_maxPooledBuffers = maxPooled;
+		return this;
+	}
+	
+	/**
+	 * Bind the server and start accepting connections.
+	 * 
+	 * @return this
+	 * @throws IOException
+	 *             If the server could not be bound
+	 */
+	public synchronized CommandServer start() throws IOException {
+		if (_running)
+			throw new IllegalStateException("server is already running");
+		
+		_buffers = new BufferPool(_bufferSize, _maxPooledBuffers);
+		if (_executor == null) {
+			_ownedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), (r) -> {
+				Thread t = new Thread(r, "CommandServer-Worker");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		
+		_server = _address instanceof UnixDomainSocketAddress ? ServerSocketChannel.open(StandardProtocolFamily.UNIX) : ServerSocketChannel.open();
+		_server.bind(_address);
+		_server.configureBlocking(false);
+		_selector = Selector.open();
+		_server.register(_selector, SelectionKey.OP_ACCEPT);
+		
+		_running = true;
+		_thread = new Thread(this::run, "CommandServer-Selector");
+		_thread.setDaemon(true);
+		_thread.start();
+		return this;
+	}
+	
+	/**
+	 * Get the address the server is bound to. This is useful when binding to port {@code 0}.
+	 * 
+	 * @return The address
+	 * @throws IOException
+	 *             If the address could not be determined
+	 */
+	public SocketAddress getLocalAddress() throws IOException {
+		return _server == null ? _address : _server.getLocalAddress();
+	}
+	
+	/**
+	 * Get the amount of open connections.
+	 * 
+	 * @return The amount of connections
+	 */
+	public int getConnectionCount() {
+		return _connections.get();
+	}
+	
+	/**
+	 * Is the server accepting connections?
+	 * 
+	 * @return {@code true} if the server has been started and not closed
+	 */
+	public boolean isRunning() {
+		return _running;
+	}
+	
+	/**
+	 * Stop accepting connections, and close all open connections.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (!_running)
+			return;
+		
+		_running = false;
+		_selector.wakeup();
+		try {
+			_thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		for (SelectionKey key : _selector.keys())
+			if (key.attachment() instanceof Connection)
+				((Connection) key.attachment()).close();
+		_selector.close();
+		_server.close();
+		if (_address instanceof UnixDomainSocketAddress)
+			Files.deleteIfExists(((UnixDomainSocketAddress) _address).getPath());
+		
+		if (_ownedExecutor != null) {
+			_ownedExecutor.shutdown();
+			_ownedExecutor = null;
+		}
+	}
+	
+	private void run() {
+		try {
+			while (_running) {
+				_selector.select();
+				
+				Connection conn;
+				while ((conn = _writable.poll()) != null)
+					conn.writeRequested();
+				
+				Iterator<SelectionKey> it = _selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid())
+						continue;
+					
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					
+					conn = (Connection) key.attachment();
+					try {
+						if (key.isReadable())
+							conn.read();
+						if (key.isValid() && key.isWritable())
+							conn.write();
+					} catch (IOException e) {
+						conn.close();
+					}
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			if (_running)
+				_manager.getErrorReporting().reportFailure(this, e);
+		}
+	}
+	
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = _server.accept()) != null) {
+			channel.configureBlocking(false);
+			Connection conn = new Connection(channel);
+			conn._key = channel.register(_selector, SelectionKey.OP_READ, conn);
+			_connections.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * The state of a single connection. Reading, writing and closing are only done on the selector thread; sending and dispatching may be
+	 * done from any thread.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	final class Connection {
+		
+		private final SocketChannel _channel;
+		private final String _name;
+		private SelectionKey _key;
+		
+		// the end of a line that has not been terminated yet (selector thread only)
+		private byte[] _partial;
+		private int _partialLength;
+		
+		// output waiting to be written, and the buffer currently being written (selector thread only)
+		private final Queue<byte[]> _out;
+		private int _outOffset;
+		private ByteBuffer _writing;
+		
+		// the bytes in _out, and whether a command printed so much that the connection has to be closed
+		private final AtomicLong _queued;
+		private volatile boolean _overflowed;
+		
+		// lines waiting to be dispatched, and the turn of the command being dispatched (guarded by this)
+		private final ArrayDeque<String> _pending;
+		private boolean _busy;
+		private long _turn;
+		
+		private volatile boolean _closed;
+		private volatile boolean _closing;
+		
+		Connection(SocketChannel channel) throws IOException {
+			_channel = channel;
+			_name = SocketCommandSender.name(channel.getRemoteAddress());
+			_partial = new byte[0];
+			_out = new ConcurrentLinkedQueue<byte[]>();
+			_queued = new AtomicLong();
+			_pending = new ArrayDeque<String>();
+		}
+		
+		boolean isClosed() {
+			return _closed;
+		}
+		
+		/*
+		 * A buffer is only borrowed while there is something to read, so idle connections hold no buffers.
+		 */
+		void read() throws IOException {
+			if (_closing)
+				return;
+			
+			ByteBuffer buf = _buffers.acquire();
+			try {
+				int n;
+				while ((n = _channel.read(buf)) > 0) {
+					buf.flip();
+					if (!lines(buf))
+						return;
+					buf.clear();
+				}
+				
+				if (n == -1)
+					close();
+			} finally {
+				_buffers.release(buf);
+			}
+		}
+		
+		/*
+		 * Split the buffer into lines, carrying over anything after the last line break. Returns false if the connection was closed.
+		 */
+		private boolean lines(ByteBuffer buf) {
+			int start = buf.position();
+			int limit = buf.limit();
+			for (int i = start; i < limit; i++) {
+				if (buf.get(i) != '\n')
+					continue;
+				
+				if (!append(buf, start, i))
+					return false;
+				received();
+				start = i + 1;
+			}
+			return append(buf, start, limit);
+		}
+		
+		private boolean append(ByteBuffer buf, int from, int to) {
+			int length = to - from;
+			if (_partialLength + length > _maxLineLength) {
+				send(SocketCommandSender.frame('-', "Line too long"));
+				closeAfterWrite();
+				return false;
+			}
+			
+			if (_partialLength + length > _partial.length)
+				_partial = Arrays.copyOf(_partial, Math.min(_maxLineLength, Math.max(_partialLength + length, _partial.length * 2)));
+			buf.get(from, _partial, _partialLength, length);
+			_partialLength += length;
+			return true;
+		}
+		
+		private void received() {
+			int length = _partialLength;
+			if (length > 0 && _partial[length - 1] == '\r')
+				length--;
+			String line = new String(_partial, 0, length, StandardCharsets.UTF_8).trim();
+			_partialLength = 0;
+			if (_partial.length > _bufferSize)
+				_partial = new byte[0];
+			
+			synchronized (this) {
+				_pending.add(line);
+				if (_busy)
+					return;
+				_busy = true;
+			}
+			next();
+		}
+		
+		/*
+		 * Dispatch the next pending line, if any. Lines from one connection are dispatched in order, one at a time.
+		 */
+		private void next() {
+			String line;
+			synchronized (this) {
+				line = _pending.poll();
+				if (line == null || _closed) {
+					_busy = false;
+					return;
+				}
+			}
+			
+			Executor executor = _executor == null ? _ownedExecutor : _executor;
+			try {
+				executor.execute(() -> dispatch(line));
+			} catch (RejectedExecutionException e) {
+				send(SocketCommandSender.frame('-', "Server is shutting down"));
+				synchronized (this) {
+					_pending.clear();
+					_busy = false;
+				}
+			}
+		}
+		
+		private void dispatch(String line) {
+			if (line.isEmpty()) { // answered like the manager answers an empty command, so the client is not left waiting
+				send(SocketCommandSender.frame('=', DispatchResult.Status.EMPTY.name()));
+				next();
+				return;
+			}
+			
+			long turn;
+			synchronized (this) {
+				turn = _turn;
+			}
+			_manager.dispatchAsync(new SocketCommandSender(this, _name, turn), line).whenComplete((result, error) -> {
+				// the command's turn ends before its status is sent, so anything its handler prints later is dropped
+				synchronized (this) {
+					_turn++;
+				}
+				send(SocketCommandSender.frame('=', result == null ? DispatchResult.Status.ERROR.name() : result.getStatus().name()));
+				next();
+			});
+		}
+		
+		/*
+		 * Queue output of the command with the given turn, unless its turn is over.
+		 */
+		void send(byte[] data, long turn) {
+			synchronized (this) {
+				if (turn != _turn)
+					return;
+				send(data); // while holding the lock, so the output cannot come after the status that ends the turn
+			}
+		}
+		
+		/*
+		 * Queue output to be written by the selector thread.
+		 */
+		void send(byte[] data) {
+			if (_closed || _closing || _overflowed)
+				return;
+			
+			if (_queued.addAndGet(data.length) > 2L * _maxQueuedOutput)
+				_overflowed = true; // closed by the selector thread
+			else
+				_out.add(data);
+			_writable.add(this);
+			_selector.wakeup();
+		}
+		
+		void writeRequested() {
+			if (_overflowed)
+				close();
+			else
+				interest();
+		}
+		
+		/*
+		 * Write while there is output, and read while there is not too much of it. Selector thread only.
+		 */
+		private void interest() {
+			if (!_key.isValid())
+				return;
+			
+			if (_closing) {
+				_key.interestOps(SelectionKey.OP_WRITE);
+				return;
+			}
+			int ops = _writing != null || !_out.isEmpty() ? SelectionKey.OP_WRITE : 0;
+			if (_queued.get() < _maxQueuedOutput)
+				ops |= SelectionKey.OP_READ;
+			_key.interestOps(ops);
+		}
+		
+		/*
+		 * Stop reading and dispatching, and close the connection once everything already queued has been written, so a last error reaches
+		 * the client. Selector thread only.
+		 */
+		private void closeAfterWrite() {
+			_closing = true;
+			synchronized (this) {
+				_pending.clear();
+			}
+			if (_key.isValid())
+				_key.interestOps(SelectionKey.OP_WRITE);
+		}
+		
+		void write() throws IOException {
+			while (true) {
+				if (_writing == null) {
+					if (_out.isEmpty()) {
+						if (_closing)
+							close();
+						else
+							interest();
+						return;
+					}
+					_writing = _buffers.acquire();
+					fill(_writing);
+				}
+				
+				_channel.write(_writing);
+				if (_writing.hasRemaining()) {
+					interest();
+					return;
+				}
+				
+				_buffers.release(_writing);
+				_writing = null;
+			}
+		}
+		
+		private void fill(ByteBuffer buf) {
+			byte[] head;
+			while (buf.hasRemaining() && (head = _out.peek()) != null) {
+				int n = Math.min(buf.remaining(), head.length - _outOffset);
+				buf.put(head, _outOffset, n);
+				_outOffset += n;
+				if (_outOffset == head.length) {
+					_out.poll();
+					_outOffset = 0;
+					_queued.addAndGet(-head.length);
+				}
+			}
+			buf.flip();
+		}
+		
+		void close() {
+			if (_closed)
+				return;
+			
+			_closed = true;
+			_connections.decrementAndGet();
+			_key.cancel();
+			try {
+				_channel.close();
+			} catch (IOException e) {
+				// nothing else can be done with the channel
+			}
+			
+			_out.clear();
+			if (_writing != null) {
+				_buffers.release(_writing);
+				_writing = null;
+			}
+		}
+		
+	}
+	
+}
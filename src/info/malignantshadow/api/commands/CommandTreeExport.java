@@ -0,0 +1,277 @@
+package info.malignantshadow.api.commands;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import info.malignantshadow.api.util.arguments.Argument;
+
+/**
+ * Walks a whole command tree, including every nested {@link CommandManager}, to produce formatted help for every command or a structured
+ * description of the tree. Nested managers and large command lists are visited in parallel on a {@link ForkJoinPool}, but the output is
+ * always in the same order: each command is followed by its sub-commands, in the order they were added.
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ *
+ */
+public class CommandTreeExport {
+	
+	/*
+	 * Command lists longer than this are split between tasks.
+	 */
+	private static final int SPLIT = 256;
+	
+	private CommandManager _root;
+	private ForkJoinPool _pool;
+	private HelpListing _listing;
+	private boolean _hidden;
+	
+	/**
+	 * Construct a new CommandTreeExport.
+	 * 
+	 * @param root
+	 *            The manager at the root of the tree
+	 */
+	public CommandTreeExport(CommandManager root) {
+		_root = root;
+		_pool = ForkJoinPool.commonPool();
+		_listing = new HelpListing("", Collections.<Command> emptyList());
+	}
+	
+	/**
+	 * Set the pool the tree is walked on. (Default: {@link ForkJoinPool#commonPool()})
+	 * 
+	 * @param pool
+	 *            The pool
+	 * @return this
+	 */
+	public CommandTreeExport withPool(ForkJoinPool pool) {
+		_pool = pool;
+		return this;
+	}
+	
+	/**
+	 * Set the {@link HelpListing} used to format each command for {@link #help()}. The listing is used from several threads at once, so
+	 * its formatting methods must not change its state.
+	 * 
+	 * @param listing
+	 *            The listing
+	 * @return this
+	 */
+	public CommandTreeExport withHelpListing(HelpListing listing) {
+		_listing = listing;
+		return this;
+	}
+	
+	/**
+	 * Set whether hidden commands (and their sub-commands) are included. (Default: {@code false})
+	 * 
+	 * @param hidden
+	 *            {@code true} to include hidden commands
+	 * @return this
+	 * @see Command#shouldBeHidden()
+	 */
+	public CommandTreeExport thatIncludesHidden(boolean hidden) {
+		_hidden = hidden;
+		return this;
+	}
+	
+	/**
+	 * Format help for every command in the tree. Each line is the full command, followed by the command's syntax and description, as
+	 * formatted by {@link HelpListing#getCommandHelp(Command)}; for example, {@code "cookie eat/e <amount> - Eat a cookie"}.
+	 * 
+	 * @return The help lines
+	 */
+	public List<String> help() {
+		return _pool.invoke(new Walk<String>(_root.getCommands(), "", (cmd, parent, children, out) -> {
+			String help = _listing.getCommandHelp(cmd);
+			out.add(parent.isEmpty() ? help : parent + " " + help);
+			out.addAll(children);
+		}));
+	}
+	
+	/**
+	 * Describe every command in the tree.
+	 * 
+	 * @return The top-level commands, each with its sub-commands
+	 */
+	public List<Node> describe() {
+		return _pool.invoke(new Walk<Node>(_root.getCommands(), "", (cmd, parent, children, out) -> {
+			out.add(new Node(cmd, path(parent, cmd), children));
+		}));
+	}
+	
+	private static String path(String parent, Command cmd) {
+		return parent.isEmpty() ? cmd.getName() : parent + " " + cmd.getName();
+	}
+	
+	/*
+	 * Produces the output for a command, given the output of its sub-commands.
+	 */
+	@FunctionalInterface
+	private static interface Visitor<T> {
+		
+		public void visit(Command cmd, String parent, List<T> children, List<T> out);
+		
+	}
+	
+	private final class Walk<T> extends RecursiveTask<List<T>> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final List<Command> _commands;
+		private final String _parent;
+		private final Visitor<T> _visitor;
+		
+		Walk(List<Command> commands, String parent, Visitor<T> visitor) {
+			_commands = commands;
+			_parent = parent;
+			_visitor = visitor;
+		}
+		
+		@Override
+		protected List<T> compute() {
+			int size = _commands.size();
+			if (size > SPLIT) {
+				Walk<T> left = new Walk<T>(_commands.subList(0, size / 2), _parent, _visitor);
+				Walk<T> right = new Walk<T>(_commands.subList(size / 2, size), _parent, _visitor);
+				right.fork();
+				List<T> out = left.compute();
+				out.addAll(right.join());
+				return out;
+			}
+			
+			List<Command> commands = new ArrayList<Command>(size);
+			List<Walk<T>> nested = new ArrayList<Walk<T>>(size);
+			for (Command c : _commands) {
+				if (c.shouldBeHidden() && !_hidden)
+					continue;
+				
+				Walk<T> walk = null;
+				if (c.isNested()) {
+					walk = new Walk<T>(c.getNestedManager().getCommands(), path(_parent, c), _visitor);
+					walk.fork();
+				}
+				commands.add(c);
+				nested.add(walk);
+			}
+			
+			List<T> out = new ArrayList<T>();
+			for (int i = 0; i < commands.size(); i++) {
+				Walk<T> walk = nested.get(i);
+				_visitor.visit(commands.get(i), _parent, walk == null ? Collections.<T> emptyList() : walk.join(), out);
+			}
+			return out;
+		}
+		
+	}
+	
+	/**
+	 * The description of a command in a tree.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	public static class Node {
+		
+		private Command _cmd;
+		private String _path;
+		private List<Node> _children;
+		
+		Node(Command cmd, String path, List<Node> children) {
+			_cmd = cmd;
+			_path = path;
+			_children = Collections.unmodifiableList(children);
+		}
+		
+		/**
+		 * Get the command this node describes.
+		 * 
+		 * @return The command
+		 */
+		public Command getCommand() {
+			return _cmd;
+		}
+		
+		/**
+		 * Get the full command, from the root of the tree (for example, {@code "cookie eat"}).
+		 * 
+		 * @return The path of the command
+		 */
+		public String getPath() {
+			return _path;
+		}
+		
+		/**
+		 * Get the name of the command.
+		 * 
+		 * @return The name
+		 */
+		public String getName() {
+			return _cmd.getName();
+		}
+		
+		/**
+		 * Get the aliases of the command, not including its name.
+		 * 
+		 * @return The aliases
+		 */
+		public List<String> getAliases() {
+			return _cmd.getAliases(false);
+		}
+		
+		/**
+		 * Get the description of the command.
+		 * 
+		 * @return The description
+		 */
+		public String getDescription() {
+			return _cmd.getDescription();
+		}
+		
+		/**
+		 * Get the arguments of the command.
+		 * 
+		 * @return The arguments
+		 */
+		public List<Argument> getArguments() {
+			return Collections.unmodifiableList(_cmd.arguments());
+		}
+		
+		/**
+		 * Get the extra argument of the command.
+		 * 
+		 * @return The extra argument, or {@code null} if the command does not accept extra arguments
+		 */
+		public Argument getExtraArgument() {
+			return _cmd.arguments().getExtraArgument();
+		}
+		
+		/**
+		 * Is the command hidden from help listings?
+		 * 
+		 * @return {@code true} if the command is hidden
+		 */
+		public boolean isHidden() {
+			return _cmd.shouldBeHidden();
+		}
+		
+		/**
+		 * Get the sub-commands of the command.
+		 * 
+		 * @return The sub-commands, in the order they were added
+		 */
+		public List<Node> getChildren() {
+			return _children;
+		}
+		
+		@Override
+		public String toString() {
+			return _children.isEmpty() ? _path : _path + " " + _children;
+		}
+		
+	}
+	
+}
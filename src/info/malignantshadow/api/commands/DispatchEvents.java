@@ -0,0 +1,92 @@
+package info.malignantshadow.api.commands;
+
+import info.malignantshadow.api.commands.DispatchResult.Status;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for each phase of {@link CommandManager#dispatchForResult(CommandSender, String) dispatching} a command.
+ * 
+ * <p>
+ * Events are only committed while a recording has them enabled. Otherwise, creating and timing an event is reduced by the JIT to
+ * (nearly) nothing, so these events are always emitted.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ *
+ */
+final class DispatchEvents {
+	
+	private DispatchEvents() {
+	}
+	
+	@Category({ "ShadowAPI", "Commands" })
+	@StackTrace(false)
+	static abstract class Phase extends Event {
+		
+		@Label("Command")
+		@Description("The command path, or the name that was looked up if no command was found")
+		String path;
+		
+		@Label("Sender Type")
+		Class<?> senderType;
+		
+		@Label("Argument Count")
+		int argumentCount;
+		
+		@Label("Outcome")
+		@Description("The dispatch status if the dispatch ended in this phase, or OK if it continued")
+		String outcome;
+		
+		/*
+		 * End this event, and commit it if a recording wants it.
+		 */
+		void report(CommandSender sender, String path, int argumentCount, Status outcome) {
+			end();
+			if (!shouldCommit())
+				return;
+			
+			this.path = path;
+			this.senderType = sender == null ? null : sender.getClass();
+			this.argumentCount = argumentCount;
+			this.outcome = outcome == null ? "OK" : outcome.name();
+			commit();
+		}
+		
+	}
+	
+	@Name("info.malignantshadow.api.commands.Split")
+	@Label("Command Split")
+	@Description("Splitting a command string into its name and arguments")
+	static final class Split extends Phase {
+	}
+	
+	@Name("info.malignantshadow.api.commands.Resolve")
+	@Label("Command Resolve")
+	@Description("Finding the command (and sub-command) to run")
+	static final class Resolve extends Phase {
+	}
+	
+	@Name("info.malignantshadow.api.commands.Parse")
+	@Label("Command Parse")
+	@Description("Creating the command context and parsing its arguments")
+	static final class Parse extends Phase {
+	}
+	
+	@Name("info.malignantshadow.api.commands.Validate")
+	@Label("Command Validate")
+	@Description("Checking that required arguments were given valid input")
+	static final class Validate extends Phase {
+	}
+	
+	@Name("info.malignantshadow.api.commands.Handle")
+	@Label("Command Handle")
+	@Description("Running the command's handler, interceptors and dispatch hooks")
+	static final class Handle extends Phase {
+	}
+	
+}
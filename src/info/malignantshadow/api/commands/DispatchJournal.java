@@ -0,0 +1,630 @@
+package info.malignantshadow.api.commands;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only record of every command a {@link CommandManager} dispatched successfully, with who sent it and when. A journal can be
+ * {@link #replay(Path, CommandManager, Function) replayed} to re-run its commands, for example to recover state after a crash.
+ * 
+ * <p>
+ * Records are written by a background thread in batches (group commit). With {@link FsyncPolicy#EVERY_BATCH}, a dispatch does not return
+ * until its record has been forced to disk, but all dispatches waiting at the same time share one write and one fsync.
+ * </p>
+ * 
+ * <p>
+ * A failure to write the journal never fails a dispatch. Instead, the journal stops accepting records, the failure is
+ * {@link ErrorReportingPolicy#reportFailure(Object, Throwable) reported} to its {@link #withErrorReporting(ErrorReportingPolicy) error
+ * reporting policy}, and it is available from {@link #getFailure()}.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ * @see CommandManager#withJournal(DispatchJournal)
+ *
+ */
+public class DispatchJournal implements Closeable {
+	
+	private static final int MAGIC = 0x53434A31; // "SCJ1"
+	private static final int HEADER = 8; // length and checksum of each record
+	
+	private Path _path;
+	private FileChannel _channel;
+	private FsyncPolicy _fsync;
+	private long _fsyncInterval;
+	private int _maxBatch;
+	private BlockingQueue<Record> _queue;
+	private Thread _writer;
+	private volatile boolean _open;
+	private volatile IOException _failure;
+	private volatile ErrorReportingPolicy _errorPolicy;
+	private final Object _lock = new Object();
+	private long _appended, _committed;
+	
+	/**
+	 * Open a journal, creating the file if it does not exist. New records are appended to the end of the file. An existing journal is
+	 * read through first, and an incomplete or damaged record at its end is removed.
+	 * 
+	 * @param path
+	 *            The journal file
+	 * @throws IOException
+	 *             If the file could not be opened, or is not a journal
+	 */
+	public DispatchJournal(Path path) throws IOException {
+		_path = path;
+		_fsync = FsyncPolicy.EVERY_BATCH;
+		_fsyncInterval = TimeUnit.SECONDS.toNanos(1);
+		_maxBatch = 1024;
+		_queue = new LinkedBlockingQueue<Record>();
+		_errorPolicy = new ErrorReportingPolicy();
+		_channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+		
+		if (_channel.size() == 0) {
+			ByteBuffer magic = ByteBuffer.allocate(4).putInt(0, MAGIC);
+			while (magic.hasRemaining())
+				_channel.write(magic);
+		} else {
+			// cut off a record that was only partly written, so new records can be read after it
+			Summary summary;
+			try {
+				summary = read(path, (entry) -> {});
+			} catch (IOException e) {
+				_channel.close();
+				throw e;
+			}
+			if (summary._truncated)
+				_channel.truncate(summary._length);
+		}
+		_channel.position(_channel.size());
+		
+		_open = true;
+		_writer = new Thread(this::write, "DispatchJournal-Writer");
+		_writer.setDaemon(true);
+		_writer.start();
+	}
+	
+	/**
+	 * Set when records are forced to disk. (Default: {@link FsyncPolicy#EVERY_BATCH})
+	 * 
+	 * @param policy
+	 *            The policy
+	 * @return this
+	 */
+	public DispatchJournal withFsyncPolicy(FsyncPolicy policy) {
+		_fsync = policy;
+		return this;
+	}
+	
+	/**
+	 * Set how often records are forced to disk when using {@link FsyncPolicy#PERIODIC}. (Default: 1 second)
+	 * 
+	 * @param interval
+	 *            The interval
+	 * @param unit
+	 *            The unit of {@code interval}
+	 * @return this
+	 */
+	public DispatchJournal withFsyncInterval(long interval, TimeUnit unit) {
+		_fsyncInterval = unit.toNanos(interval);
+		return this;
+	}
+	
+	/**
+	 * Set the largest amount of records written at once. (Default: 1024)
+	 * 
+	 * @param maxBatch
+	 *            The batch size
+	 * @return this
+	 */
+	public DispatchJournal withMaxBatch(int maxBatch) {
+		if (maxBatch <= 0)
+			throw new IllegalArgumentException("maxBatch must be positive");
+		
+		_maxBatch = maxBatch;
+		return this;
+	}
+	
+	/**
+	 * Set how a failure to write this journal is reported. A {@link CommandManager} sets this to its own policy when the journal is
+	 * {@link CommandManager#withJournal(DispatchJournal) given} to it.
+	 * 
+	 * @param policy
+	 *            The policy
+	 * @return this
+	 */
+	public DispatchJournal withErrorReporting(ErrorReportingPolicy policy) {
+		if (policy == null)
+			throw new IllegalArgumentException("policy cannot be null");
+		
+		_errorPolicy = policy;
+		return this;
+	}
+	
+	/**
+	 * Get how a failure to write this journal is reported.
+	 * 
+	 * @return The policy
+	 */
+	public ErrorReportingPolicy getErrorReporting() {
+		return _errorPolicy;
+	}
+	
+	/**
+	 * Get the journal file.
+	 * 
+	 * @return The path of the journal
+	 */
+	public Path getPath() {
+		return _path;
+	}
+	
+	/**
+	 * Get the error that stopped this journal from writing records.
+	 * 
+	 * @return The error, or {@code null} if the journal is healthy
+	 */
+	public IOException getFailure() {
+		return _failure;
+	}
+	
+	/**
+	 * Record a command that was dispatched successfully. This is called by the {@link CommandManager} the journal belongs to.
+	 * 
+	 * @param context
+	 *            The context of the command
+	 */
+	public void append(CommandContext context) {
+		CommandSender sender = context.getSender();
+		// as it was typed, so a replay splits it (and any quoted arguments in it) the same way
+		append(System.currentTimeMillis(), sender == null ? "" : sender.getName(), context.getFullCommandSequence().toString());
+	}
+	
+	/**
+	 * Record a command.
+	 * 
+	 * @param time
+	 *            When the command was run, in milliseconds since the epoch
+	 * @param sender
+	 *            The name of who sent the command
+	 * @param command
+	 *            The full command string
+	 */
+	public void append(long time, String sender, String command) {
+		if (!_open || _failure != null)
+			return;
+		
+		Record record = new Record(time, sender.getBytes(StandardCharsets.UTF_8), command.getBytes(StandardCharsets.UTF_8));
+		synchronized (_lock) {
+			record._seq = ++_appended;
+			_queue.add(record);
+		}
+		
+		if (_fsync == FsyncPolicy.EVERY_BATCH)
+			await(record._seq);
+	}
+	
+	/*
+	 * Wait until the record has been committed, the journal has failed, or the journal was closed.
+	 */
+	private void await(long seq) {
+		boolean interrupted = false;
+		synchronized (_lock) {
+			while (_committed < seq && _failure == null && _writer.isAlive()) {
+				try {
+					_lock.wait(100);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	/**
+	 * Wait until every record appended so far has been written (and forced to disk, unless the policy is {@link FsyncPolicy#NEVER}).
+	 */
+	public void flush() {
+		long seq;
+		synchronized (_lock) {
+			seq = _appended;
+		}
+		await(seq);
+	}
+	
+	private void write() {
+		List<Record> batch = new ArrayList<Record>();
+		ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+		CRC32 crc = new CRC32();
+		long lastSync = System.nanoTime();
+		boolean dirty = false;
+		
+		try {
+			while (_open || !_queue.isEmpty()) {
+				Record first = _queue.poll(10, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					if (dirty && _fsync == FsyncPolicy.PERIODIC && System.nanoTime() - lastSync >= _fsyncInterval) {
+						_channel.force(false);
+						lastSync = System.nanoTime();
+						dirty = false;
+					}
+					continue;
+				}
+				
+				batch.add(first);
+				_queue.drainTo(batch, _maxBatch - 1);
+				
+				int size = 0;
+				for (Record r : batch)
+					size += HEADER + r.size();
+				if (size > buf.capacity())
+					buf = ByteBuffer.allocateDirect(Math.max(size, buf.capacity() * 2));
+				
+				buf.clear();
+				for (Record r : batch)
+					r.encode(buf, crc);
+				buf.flip();
+				while (buf.hasRemaining())
+					_channel.write(buf);
+				dirty = true;
+				
+				if (_fsync == FsyncPolicy.EVERY_BATCH || (_fsync == FsyncPolicy.PERIODIC && System.nanoTime() - lastSync >= _fsyncInterval)) {
+					_channel.force(false);
+					lastSync = System.nanoTime();
+					dirty = false;
+				}
+				
+				synchronized (_lock) {
+					_committed = batch.get(batch.size() - 1)._seq;
+					_lock.notifyAll();
+				}
+				batch.clear();
+			}
+			
+			if (dirty && _fsync != FsyncPolicy.NEVER)
+				_channel.force(false);
+		} catch (IOException e) {
+			_failure = e;
+			_errorPolicy.reportFailure(this, e);
+		} catch (InterruptedException e) {
+			// closed without waiting
+		} finally {
+			synchronized (_lock) {
+				_lock.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Write all pending records and close the journal.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!_open)
+			return;
+		
+		_open = false;
+		try {
+			_writer.join();
+		} catch (InterruptedException e) {
+			_writer.interrupt();
+			Thread.currentThread().interrupt();
+		}
+		_channel.close();
+	}
+	
+	/**
+	 * Read every intact record in a journal. Reading stops at the first record that is incomplete or damaged, which is usually the last
+	 * record being written when the process stopped.
+	 * 
+	 * @param path
+	 *            The journal file
+	 * @param consumer
+	 *            Called with each record, in the order they were written
+	 * @return A summary of the records read
+	 * @throws IOException
+	 *             If the journal could not be read
+	 */
+	public static Summary read(Path path, Consumer<Entry> consumer) throws IOException {
+		Summary summary = new Summary();
+		summary._length = 4;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.allocate(256 * 1024);
+			buf.flip(); // start empty
+			if (!fill(channel, buf, 4) || buf.getInt() != MAGIC)
+				throw new IOException(path + " is not a command journal");
+			
+			CRC32 crc = new CRC32();
+			while (fill(channel, buf, HEADER)) {
+				int length = buf.getInt(buf.position());
+				int checksum = buf.getInt(buf.position() + 4);
+				// a damaged length must not be trusted to allocate with: it has to fit in what is left of the file, and in one buffer
+				long left = channel.size() - summary._length - HEADER;
+				if (length < 14 || length > left || length > Integer.MAX_VALUE - 16 - HEADER) {
+					summary._truncated = true;
+					return summary;
+				}
+				
+				if (HEADER + length > buf.capacity()) {
+					ByteBuffer bigger = ByteBuffer.allocate(HEADER + length);
+					bigger.put(buf);
+					bigger.flip();
+					buf = bigger;
+				}
+				
+				if (!fill(channel, buf, HEADER + length)) {
+					summary._truncated = true;
+					return summary;
+				}
+				
+				buf.position(buf.position() + HEADER);
+				ByteBuffer payload = buf.slice(buf.position(), length);
+				crc.reset();
+				crc.update(payload.duplicate());
+				if ((int) crc.getValue() != checksum) {
+					summary._truncated = true;
+					return summary;
+				}
+				
+				Entry entry = Entry.decode(payload);
+				if (entry == null) {
+					summary._truncated = true;
+					return summary;
+				}
+				
+				consumer.accept(entry);
+				summary._records++;
+				summary._length += HEADER + length;
+				buf.position(buf.position() + length);
+			}
+			
+			if (buf.hasRemaining())
+				summary._truncated = true;
+		}
+		return summary;
+	}
+	
+	/*
+	 * Make sure the buffer has at least the given amount of bytes remaining. Returns false if the end of the file was reached first.
+	 */
+	private static boolean fill(FileChannel channel, ByteBuffer buf, int needed) throws IOException {
+		if (buf.remaining() >= needed)
+			return true;
+		
+		buf.compact();
+		while (buf.position() < needed) {
+			if (channel.read(buf) == -1) {
+				buf.flip();
+				return false;
+			}
+		}
+		buf.flip();
+		return true;
+	}
+	
+	/**
+	 * Re-dispatch every command in a journal, as fast as the manager can run them. The manager should not write to the same journal
+	 * while it is being replayed.
+	 * 
+	 * @param path
+	 *            The journal file
+	 * @param manager
+	 *            The manager to dispatch the commands to
+	 * @param senders
+	 *            Gives the sender for a sender name recorded in the journal
+	 * @return A summary of the replay
+	 * @throws IOException
+	 *             If the journal could not be read
+	 */
+	public static Summary replay(Path path, CommandManager manager, Function<String, CommandSender> senders) throws IOException {
+		long[] failures = new long[1];
+		Summary summary = read(path, (entry) -> {
+			if (!manager.dispatchForResult(senders.apply(entry.getSender()), entry.getCommand()).isSuccess())
+				failures[0]++;
+		});
+		summary._failures = failures[0];
+		return summary;
+	}
+	
+	/**
+	 * Decides when journal records are forced to disk.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	public static enum FsyncPolicy {
+		
+		/**
+		 * Never force records to disk; leave it to the operating system. Dispatches do not wait for their record to be written.
+		 */
+		NEVER,
+		
+		/**
+		 * Force records to disk at a fixed interval. Dispatches do not wait for their record to be written.
+		 * 
+		 * @see DispatchJournal#withFsyncInterval(long, TimeUnit)
+		 */
+		PERIODIC,
+		
+		/**
+		 * Force every batch of records to disk. Dispatches wait until their record is durable.
+		 */
+		EVERY_BATCH;
+		
+	}
+	
+	/*
+	 * A record waiting to be written. Record layout: int length, int crc32 of the payload, then the payload:
+	 * long time, short sender length, sender (UTF-8), int command length, command (UTF-8).
+	 */
+	private static final class Record {
+		
+		private final long _time;
+		private final byte[] _sender, _command;
+		private long _seq;
+		
+		Record(long time, byte[] sender, byte[] command) {
+			_time = time;
+			_sender = sender.length > Short.MAX_VALUE ? truncate(sender, Short.MAX_VALUE) : sender;
+			_command = command;
+		}
+		
+		/*
+		 * Cut UTF-8 bytes down to at most max bytes, without splitting a character.
+		 */
+		private static byte[] truncate(byte[] utf8, int max) {
+			int length = max;
+			while (length > 0 && (utf8[length] & 0xC0) == 0x80) // the first byte cut off continues a character
+				length--;
+			return Arrays.copyOf(utf8, length);
+		}
+		
+		int size() {
+			return 8 + 2 + _sender.length + 4 + _command.length;
+		}
+		
+		void encode(ByteBuffer buf, CRC32 crc) {
+			int start = buf.position();
+			buf.putInt(size()).putInt(0);
+			buf.putLong(_time).putShort((short) _sender.length).put(_sender).putInt(_command.length).put(_command);
+			
+			crc.reset();
+			crc.update(buf.slice(start + HEADER, size()));
+			buf.putInt(start + 4, (int) crc.getValue());
+		}
+		
+	}
+	
+	/**
+	 * A command read from a journal.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	public static class Entry {
+		
+		private long _time;
+		private String _sender, _command;
+		
+		Entry(long time, String sender, String command) {
+			_time = time;
+			_sender = sender;
+			_command = command;
+		}
+		
+		/*
+		 * Decode a payload, or return null if the lengths in it do not add up to the payload's size.
+		 */
+		static Entry decode(ByteBuffer payload) {
+			long time = payload.getLong();
+			int senderLength = payload.getShort();
+			if (senderLength < 0 || senderLength > payload.remaining() - 4)
+				return null;
+			
+			byte[] sender = new byte[senderLength];
+			payload.get(sender);
+			int commandLength = payload.getInt();
+			if (commandLength != payload.remaining())
+				return null;
+			
+			byte[] command = new byte[commandLength];
+			payload.get(command);
+			return new Entry(time, new String(sender, StandardCharsets.UTF_8), new String(command, StandardCharsets.UTF_8));
+		}
+		
+		/**
+		 * Get when the command was run.
+		 * 
+		 * @return The time, in milliseconds since the epoch
+		 */
+		public long getTime() {
+			return _time;
+		}
+		
+		/**
+		 * Get the name of who sent the command.
+		 * 
+		 * @return The sender's name
+		 * @see CommandSender#getName()
+		 */
+		public String getSender() {
+			return _sender;
+		}
+		
+		/**
+		 * Get the full command string.
+		 * 
+		 * @return The command
+		 */
+		public String getCommand() {
+			return _command;
+		}
+		
+		@Override
+		public String toString() {
+			return "DispatchJournal.Entry{time=" + _time + ", sender=" + _sender + ", command=" + _command + "}";
+		}
+		
+	}
+	
+	/**
+	 * A summary of reading or replaying a journal.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	public static class Summary {
+		
+		private long _records, _failures;
+		private long _length; // of the intact part of the journal
+		private boolean _truncated;
+		
+		/**
+		 * Get the amount of records read.
+		 * 
+		 * @return The amount of records
+		 */
+		public long getRecordCount() {
+			return _records;
+		}
+		
+		/**
+		 * Get the amount of replayed commands that did not dispatch successfully.
+		 * 
+		 * @return The amount of failures (always {@code 0} when only reading)
+		 */
+		public long getFailureCount() {
+			return _failures;
+		}
+		
+		/**
+		 * Did reading stop at an incomplete or damaged record?
+		 * 
+		 * @return {@code true} if the end of the journal could not be read
+		 */
+		public boolean isTruncated() {
+			return _truncated;
+		}
+		
+		@Override
+		public String toString() {
+			return "DispatchJournal.Summary{records=" + _records + ", failures=" + _failures + (_truncated ? ", truncated" : "") + "}";
+		}
+		
+	}
+	
+}
@@ -0,0 +1,308 @@
+package info.malignantshadow.api.commands;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatches a stream of {@link CommandRequest}s and publishes their {@link DispatchResult}s, in the same order as the requests. Each
+ * request is dispatched with {@link CommandManager#dispatchAsync(CommandSender, String)}, so handlers run on the manager's scheduler or
+ * executor.
+ * 
+ * <p>
+ * Requests are only asked for while fewer than {@code maxInFlight} requests are running or waiting for their result to be delivered.
+ * That way a slow handler, or a slow subscriber, slows down the publisher of the requests instead of building up a queue.
+ * </p>
+ * 
+ * <p>
+ * This processor supports a single subscriber. Its results are published once the subscriber subscribes, and errors are published
+ * immediately, dropping results that were not delivered yet.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ * @see CommandManager#dispatchAll(Flow.Publisher, int)
+ *
+ */
+public class DispatchProcessor implements Flow.Processor<CommandRequest, DispatchResult> {
+	
+	private final CommandManager _manager;
+	private final int _maxInFlight;
+	private final Object _lock = new Object();
+	private final ArrayDeque<CompletableFuture<DispatchResult>> _pending;
+	private final AtomicInteger _wip;
+	private Flow.Subscription _upstream;
+	private Flow.Subscriber<? super DispatchResult> _downstream;
+	private long _demand;
+	private int _outstanding;
+	private boolean _upstreamDone, _cancelled, _terminated;
+	private Throwable _error;
+	
+	/**
+	 * Construct a new DispatchProcessor.
+	 * 
+	 * @param manager
+	 *            The manager to dispatch requests to
+	 * @param maxInFlight
+	 *            The largest amount of requests running or waiting for their result to be delivered
+	 */
+	public DispatchProcessor(CommandManager manager, int maxInFlight) {
+		if (maxInFlight <= 0)
+			throw new IllegalArgumentException("maxInFlight must be positive");
+		
+		_manager = manager;
+		_maxInFlight = maxInFlight;
+		_pending = new ArrayDeque<CompletableFuture<DispatchResult>>();
+		_wip = new AtomicInteger();
+	}
+	
+	/**
+	 * Get the largest amount of requests running or waiting for their result to be delivered.
+	 * 
+	 * @return The limit
+	 */
+	public int getMaxInFlight() {
+		return _maxInFlight;
+	}
+	
+	/**
+	 * Get the amount of requests running or waiting for their result to be delivered.
+	 * 
+	 * @return The amount of requests in flight
+	 */
+	public int getInFlight() {
+		synchronized (_lock) {
+			return _pending.size();
+		}
+	}
+	
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		synchronized (_lock) {
+			if (_upstream != null || _cancelled) {
+				subscription.cancel();
+				return;
+			}
+			_upstream = subscription;
+		}
+		drain();
+	}
+	
+	@Override
+	public void onNext(CommandRequest request) {
+		if (request == null)
+			throw new NullPointerException("request cannot be null");
+		
+		CompletableFuture<DispatchResult> future;
+		try {
+			future = _manager.dispatchAsync(request.getSender(), request.getLine());
+		} catch (Throwable t) {
+			future = new CompletableFuture<DispatchResult>();
+			future.completeExceptionally(t);
+		}
+		
+		synchronized (_lock) {
+			if (_outstanding > 0)
+				_outstanding--;
+			if (_cancelled || _terminated)
+				return;
+			_pending.add(future);
+		}
+		future.whenComplete((result, error) -> drain());
+		drain();
+	}
+	
+	@Override
+	public void onError(Throwable error) {
+		synchronized (_lock) {
+			_error = error;
+			_upstreamDone = true;
+		}
+		drain();
+	}
+	
+	@Override
+	public void onComplete() {
+		synchronized (_lock) {
+			_upstreamDone = true;
+		}
+		drain();
+	}
+	
+	@Override
+	public void subscribe(Flow.Subscriber<? super DispatchResult> subscriber) {
+		boolean accepted;
+		synchronized (_lock) {
+			accepted = _downstream == null;
+			if (accepted)
+				_downstream = subscriber;
+		}
+		
+		if (!accepted) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				
+				@Override
+				public void request(long n) {
+				}
+				
+				@Override
+				public void cancel() {
+				}
+				
+			});
+			subscriber.onError(new IllegalStateException("DispatchProcessor only supports one subscriber"));
+			return;
+		}
+		
+		subscriber.onSubscribe(new Flow.Subscription() {
+			
+			@Override
+			public void request(long n) {
+				synchronized (_lock) {
+					if (n <= 0) {
+						if (_error == null)
+							_error = new IllegalArgumentException("request amount must be positive, but was " + n);
+					} else {
+						_demand += n;
+						if (_demand < 0) // overflow
+							_demand = Long.MAX_VALUE;
+					}
+				}
+				drain();
+			}
+			
+			@Override
+			public void cancel() {
+				Flow.Subscription upstream;
+				synchronized (_lock) {
+					_cancelled = true;
+					_pending.clear();
+					upstream = _upstream;
+				}
+				if (upstream != null)
+					upstream.cancel();
+			}
+			
+		});
+		drain();
+	}
+	
+	/*
+	 * Deliver the results that are ready, signal completion, and ask for more requests. Only one thread drains at a time; a thread that
+	 * finds another draining leaves a note (_wip) for it to go around again.
+	 */
+	private void drain() {
+		if (_wip.getAndIncrement() != 0)
+			return;
+		
+		int missed = 1;
+		do {
+			if (deliver())
+				requestMore();
+			missed = _wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+	
+	/*
+	 * Returns false once the stream has ended.
+	 */
+	private boolean deliver() {
+		while (true) {
+			Flow.Subscriber<? super DispatchResult> downstream;
+			CompletableFuture<DispatchResult> head = null;
+			Throwable error = null;
+			boolean complete = false;
+			synchronized (_lock) {
+				downstream = _downstream;
+				if (_cancelled || _terminated)
+					return false;
+				if (downstream == null)
+					return true;
+				
+				if (_error != null) {
+					error = _error;
+				} else if (!_pending.isEmpty()) {
+					if (_demand == 0 || !_pending.peek().isDone())
+						return true;
+					head = _pending.poll();
+					_demand--;
+				} else if (_upstreamDone) {
+					complete = true;
+				} else {
+					return true;
+				}
+			}
+			
+			if (head != null) {
+				try {
+					downstream.onNext(head.join());
+					continue;
+				} catch (CompletionException e) {
+					error = e.getCause();
+				}
+			}
+			
+			Flow.Subscription upstream;
+			synchronized (_lock) {
+				_terminated = true;
+				_pending.clear();
+				upstream = _upstreamDone ? null : _upstream;
+			}
+			if (error != null) {
+				if (upstream != null)
+					upstream.cancel();
+				downstream.onError(error);
+			} else if (complete) {
+				downstream.onComplete();
+			}
+			return false;
+		}
+	}
+	
+	private void requestMore() {
+		Flow.Subscription upstream;
+		int n;
+		synchronized (_lock) {
+			upstream = _upstream;
+			if (upstream == null || _downstream == null || _upstreamDone || _cancelled || _terminated)
+				return;
+			
+			n = _maxInFlight - _pending.size() - _outstanding;
+			if (n <= 0)
+				return;
+			_outstanding += n;
+		}
+		upstream.request(n);
+	}
+	
+	/*
+	 * Turn a publisher of lines into a publisher of requests from the same sender.
+	 */
+	static Flow.Publisher<CommandRequest> fromLines(Flow.Publisher<String> lines, CommandSender sender) {
+		return (subscriber) -> lines.subscribe(new Flow.Subscriber<String>() {
+			
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				subscriber.onSubscribe(subscription);
+			}
+			
+			@Override
+			public void onNext(String line) {
+				subscriber.onNext(new CommandRequest(sender, line));
+			}
+			
+			@Override
+			public void onError(Throwable error) {
+				subscriber.onError(error);
+			}
+			
+			@Override
+			public void onComplete() {
+				subscriber.onComplete();
+			}
+			
+		});
+	}
+	
+}
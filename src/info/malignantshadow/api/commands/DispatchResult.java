@@ -0,0 +1,360 @@
+package info.malignantshadow.api.commands;
+
+/**
+ * The outcome of dispatching a command. Unlike the <code>boolean</code> returned by {@link CommandManager#dispatch(CommandSender, String)},
+ * a DispatchResult tells callers <i>why</i> a command did not run without having to parse any messages.
+ * 
+ * <p>
+ * The message describing a failure is only formatted when {@link #getMessage()} is called (or when it is sent to the sender), so
+ * results that are simply inspected and discarded are cheap to produce.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ * @see CommandManager#dispatchForResult(CommandSender, String)
+ *
+ */
+public class DispatchResult {
+	
+	private CommandSender _sender;
+	private Status _status;
+	private Command _cmd;
+	private String _prefix;
+	private int _argCount;
+	private CommandContext _context;
+	private Throwable _error;
+	private Object[] _details;
+	private String _message;
+	private boolean _timed, _phased;
+	private long _start, _end;
+	// when each phase ended, or 0; fields rather than an array, so timing a dispatch allocates nothing
+	private long _split, _resolve, _parse, _validate, _handle;
+	private CommandLine _line;
+	
+	DispatchResult(CommandSender sender) {
+		_sender = sender;
+	}
+	
+	/*
+	 * The methods below are used by CommandManager while the command is being dispatched. Once a result has been returned to
+	 * the caller it is no longer modified.
+	 */
+	
+	void resolved(Command cmd, String prefix, int argCount) {
+		_cmd = cmd;
+		_prefix = prefix;
+		_argCount = argCount;
+	}
+	
+	int getArgumentCount() {
+		return _argCount;
+	}
+	
+	/*
+	 * The line being dispatched, if the command was dispatched from a line, so its context can keep it.
+	 */
+	void setLine(CommandLine line) {
+		_line = line;
+	}
+	
+	CommandLine getLine() {
+		return _line;
+	}
+	
+	/*
+	 * Start timing this dispatch. Until this is called, finish() does nothing; mark() does nothing unless the phases are timed too.
+	 */
+	void startTiming(boolean phases) {
+		_start = System.nanoTime();
+		_timed = true;
+		_phased = phases;
+	}
+	
+	boolean isTimed() {
+		return _timed;
+	}
+	
+	/*
+	 * Record that a phase of the dispatch has ended.
+	 */
+	void mark(SlowCommandLog.Phase phase) {
+		if (!_phased)
+			return;
+		
+		long now = System.nanoTime();
+		switch (phase) {
+			case SPLIT:
+				_split = now;
+				break;
+			case RESOLVE:
+				_resolve = now;
+				break;
+			case PARSE:
+				_parse = now;
+				break;
+			case VALIDATE:
+				_validate = now;
+				break;
+			case HANDLE:
+				_handle = now;
+				break;
+		}
+	}
+	
+	private long getMark(int ordinal) {
+		switch (ordinal) {
+			case 0:
+				return _split;
+			case 1:
+				return _resolve;
+			case 2:
+				return _parse;
+			case 3:
+				return _validate;
+			default:
+				return _handle;
+		}
+	}
+	
+	void finish() {
+		if (_timed && _end == 0)
+			_end = System.nanoTime();
+	}
+	
+	/*
+	 * The time between starting and finishing this dispatch, in nanoseconds.
+	 */
+	long getElapsed() {
+		return _end - _start;
+	}
+	
+	/*
+	 * The time a phase took, in nanoseconds, or -1 if it was not reached.
+	 */
+	long getPhaseTime(SlowCommandLog.Phase phase) {
+		long end = getMark(phase.ordinal());
+		if (end == 0)
+			return -1;
+		
+		long start = _start;
+		for (int i = phase.ordinal() - 1; i >= 0; i--) {
+			if (getMark(i) != 0) {
+				start = getMark(i);
+				break;
+			}
+		}
+		return end - start;
+	}
+	
+	void created(CommandContext context) {
+		_context = context;
+	}
+	
+	DispatchResult complete(Status status, Object... details) {
+		_status = status;
+		_details = details;
+		return this;
+	}
+	
+	DispatchResult failed(Throwable error) {
+		_error = error;
+		return complete(Status.ERROR);
+	}
+	
+	void clearError() {
+		_error = null;
+	}
+	
+	/*
+	 * A copy of this result with a different status, used when the original may still be written to by another thread.
+	 */
+	DispatchResult copy(Status status, Object... details) {
+		DispatchResult copy = new DispatchResult(_sender);
+		copy.resolved(_cmd, _prefix, _argCount);
+		copy.created(_context);
+		copy._timed = _timed;
+		copy._phased = _phased;
+		copy._start = _start;
+		copy._split = _split;
+		copy._resolve = _resolve;
+		copy._parse = _parse;
+		copy._validate = _validate;
+		copy._handle = _handle;
+		return copy.complete(status, details);
+	}
+	
+	/**
+	 * Get the status of this result.
+	 * 
+	 * @return The status
+	 */
+	public Status getStatus() {
+		return _status;
+	}
+	
+	/**
+	 * Did the command run successfully?
+	 * 
+	 * @return {@code true} if the status is {@link Status#SUCCESS}
+	 */
+	public boolean isSuccess() {
+		return _status == Status.SUCCESS;
+	}
+	
+	/**
+	 * Get who sent the command.
+	 * 
+	 * @return The sender
+	 */
+	public CommandSender getSender() {
+		return _sender;
+	}
+	
+	/**
+	 * Get the command that was dispatched.
+	 * 
+	 * @return The command, or {@code null} if no command was found
+	 */
+	public Command getCommand() {
+		return _cmd;
+	}
+	
+	/**
+	 * Get the prefix of the command that was dispatched. This is the full command string up to and including the command's name.
+	 * 
+	 * @return The prefix, or {@code null} if no command was found
+	 */
+	public String getCommandPrefix() {
+		return _prefix;
+	}
+	
+	/**
+	 * Get the context that was created for the command.
+	 * 
+	 * @return The context, or {@code null} if the command was not found or its arguments could not be parsed
+	 */
+	public CommandContext getContext() {
+		return _context;
+	}
+	
+	/**
+	 * Get the exception thrown by the command's handler.
+	 * 
+	 * @return The exception, or {@code null} if the handler did not throw one (or the manager's {@link ErrorReportingPolicy} does not
+	 *         capture them)
+	 */
+	public Throwable getError() {
+		return _error;
+	}
+	
+	/**
+	 * Get a message describing this result, as it would be shown to the sender. The message is formatted the first time this method is
+	 * called.
+	 * 
+	 * @return The message, or {@code null} if this status has no message
+	 */
+	public String getMessage() {
+		if (_message == null && _status.getFormat() != null)
+			_message = String.format(_status.getFormat(), _details);
+		return _message;
+	}
+	
+	@Override
+	public String toString() {
+		String message = getMessage();
+		return "DispatchResult{status=" + _status + (_prefix == null ? "" : ", command=" + _prefix) + (message == null ? "" : ", message=" + message) + "}";
+	}
+	
+	/**
+	 * The possible outcomes of dispatching a command.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	public static enum Status {
+		
+		/**
+		 * The command's handler ran and returned normally.
+		 */
+		SUCCESS(null),
+		
+		/**
+		 * No command was given.
+		 */
+		EMPTY(null),
+		
+		/**
+		 * No command with the given name/alias exists.
+		 */
+		NOT_FOUND("[CommandErr] <%s> - Not found"),
+		
+		/**
+		 * The given name is an abbreviation of more than one command.
+		 * 
+		 * @see CommandManager#withAbbreviations(boolean)
+		 */
+		AMBIGUOUS("[CommandErr] <%s> - Ambiguous, could be: %s"),
+		
+		/**
+		 * Fewer arguments than the command requires were given.
+		 */
+		NOT_ENOUGH_ARGUMENTS("[CommandErr] '%s' - Expected at least %d argument(s), but got %d"),
+		
+		/**
+		 * A required argument could not be parsed from its input.
+		 */
+		INVALID_ARGUMENT("[CommandErr] '%s' - Invalid input for argument '%s': \"%s\""),
+		
+		/**
+		 * {@link CommandManager#commandWillDispatch(Command, CommandContext)} prevented the command from running.
+		 */
+		REJECTED(null),
+		
+		/**
+		 * An {@link Command.Interceptor interceptor} stopped the command before it reached the handler.
+		 * 
+		 * @see Command#withInterceptor(Command.Interceptor)
+		 */
+		INTERCEPTED(null),
+		
+		/**
+		 * The command has no handler.
+		 */
+		NO_HANDLER(null),
+		
+		/**
+		 * The command's handler threw an exception.
+		 */
+		ERROR("An error occurred while running this command"),
+		
+		/**
+		 * The command did not finish before its deadline.
+		 * 
+		 * @see CommandManager#withTimeout(long, java.util.concurrent.TimeUnit)
+		 */
+		TIMED_OUT("[CommandErr] '%s' - Timed out after %d ms"),
+		
+		/**
+		 * The command was not run because the dispatch queue was full.
+		 * 
+		 * @see OverflowPolicy
+		 */
+		SHED("[CommandErr] '%s' - Too busy to run this command, try again later");
+		
+		private String _format;
+		
+		private Status(String format) {
+			_format = format;
+		}
+		
+		/**
+		 * Get the format of the message shown to the sender for this status.
+		 * 
+		 * @return The format, or {@code null} if nothing is shown
+		 */
+		public String getFormat() {
+			return _format;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,649 @@
+package info.malignantshadow.api.commands;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs command handlers for {@link CommandManager#dispatchAsync(CommandSender, String) asynchronous dispatches} on its own worker threads,
+ * taking them from a set of bounded priority lanes. Each dispatch is queued in the lane for its priority: the higher of its command's
+ * {@link Command#withPriority(int) priority} and its sender's {@link CommandSender#getPriority() priority}. Lane {@code 0} is the lowest
+ * priority; priorities above the highest lane use the highest lane.
+ * 
+ * <p>
+ * By default lanes are served in strict priority order: a worker always takes from the highest non-empty lane, so high-priority commands
+ * never wait behind low-priority ones. With {@link #withWeights(int...) weights}, lanes are served in proportion to their weights
+ * instead, so low-priority lanes are not starved.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ * @see CommandManager#withScheduler(DispatchScheduler)
+ *
+ */
+public class DispatchScheduler implements Closeable {
+	
+	private final Lane[] _lanes;
+	private final Thread[] _workers;
+	private final ReentrantLock _lock;
+	private final Condition _notEmpty;
+	private int[] _weights, _credits;
+	private int _queued;
+	private boolean _open;
+	private volatile ErrorReportingPolicy _errorPolicy;
+	
+	/**
+	 * Construct a new DispatchScheduler and start its worker threads.
+	 * 
+	 * @param lanes
+	 *            The amount of priority lanes
+	 * @param capacity
+	 *            How many dispatches each lane can hold. What happens to dispatches to a full lane is decided by its
+	 *            {@link Lane#withOverflowPolicy(OverflowPolicy) overflow policy}, which is {@link OverflowPolicy#REJECT REJECT} by default.
+	 * @param workers
+	 *            The amount of worker threads
+	 */
+	public DispatchScheduler(int lanes, int capacity, int workers) {
+		if (lanes <= 0)
+			throw new IllegalArgumentException("lanes must be positive");
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+		if (workers <= 0)
+			throw new IllegalArgumentException("workers must be positive");
+		
+		_lock = new ReentrantLock();
+		_notEmpty = _lock.newCondition();
+		_lanes = new Lane[lanes];
+		for (int i = 0; i < lanes; i++)
+			_lanes[i] = new Lane(i, capacity);
+		
+		_errorPolicy = new ErrorReportingPolicy();
+		_open = true;
+		_workers = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			_workers[i] = new Thread(this::work, "DispatchScheduler-Worker-" + i);
+			_workers[i].setDaemon(true);
+			_workers[i].start();
+		}
+	}
+	
+	/**
+	 * Set how an exception that escapes a task is reported. Dispatches never throw out of their tasks, since they complete their futures
+	 * instead, but other tasks run on a {@link Lane} may. A {@link CommandManager} sets this to its own policy for a scheduler it makes
+	 * with {@link CommandManager#withAdmissionQueue(int, int, OverflowPolicy)}.
+	 * 
+	 * @param policy
+	 *            The policy
+	 * @return this
+	 */
+	public DispatchScheduler withErrorReporting(ErrorReportingPolicy policy) {
+		if (policy == null)
+			throw new IllegalArgumentException("policy cannot be null");
+		
+		_errorPolicy = policy;
+		return this;
+	}
+	
+	/**
+	 * Get how an exception that escapes a task is reported.
+	 * 
+	 * @return The policy
+	 */
+	public ErrorReportingPolicy getErrorReporting() {
+		return _errorPolicy;
+	}
+	
+	/**
+	 * Serve lanes in proportion to their weights: out of every {@code sum(weights)} dispatches taken while all lanes are busy, lane
+	 * {@code i} gets {@code weights[i]}. Lanes are interleaved as evenly as possible.
+	 * 
+	 * @param weights
+	 *            The weight of each lane, starting with lane {@code 0}
+	 * @return this
+	 */
+	public DispatchScheduler withWeights(int... weights) {
+		if (weights.length != _lanes.length)
+			throw new IllegalArgumentException("expected " + _lanes.length + " weights, but got " + weights.length);
+		for (int w : weights)
+			if (w <= 0)
+				throw new IllegalArgumentException("weights must be positive");
+		
+		_lock.lock();
+		try {
+			_weights = weights.clone();
+			_credits = new int[weights.length];
+		} finally {
+			_lock.unlock();
+		}
+		return this;
+	}
+	
+	/**
+	 * Set the overflow policy of every lane.
+	 * 
+	 * @param policy
+	 *            The policy
+	 * @return this
+	 * @see Lane#withOverflowPolicy(OverflowPolicy)
+	 */
+	public DispatchScheduler withOverflowPolicy(OverflowPolicy policy) {
+		for (Lane lane : _lanes)
+			lane.withOverflowPolicy(policy);
+		return this;
+	}
+	
+	/**
+	 * Serve lanes in strict priority order (the default).
+	 * 
+	 * @return this
+	 */
+	public DispatchScheduler withStrictPriority() {
+		_lock.lock();
+		try {
+			_weights = null;
+			_credits = null;
+		} finally {
+			_lock.unlock();
+		}
+		return this;
+	}
+	
+	/**
+	 * Are lanes served in strict priority order?
+	 * 
+	 * @return {@code true} if lanes are not weighted
+	 */
+	public boolean isStrict() {
+		_lock.lock();
+		try {
+			return _weights == null;
+		} finally {
+			_lock.unlock();
+		}
+	}
+	
+	/**
+	 * Get the weight of each lane.
+	 * 
+	 * @return The weights, or {@code null} if lanes are served in strict priority order
+	 */
+	public int[] getWeights() {
+		_lock.lock();
+		try {
+			return _weights == null ? null : _weights.clone();
+		} finally {
+			_lock.unlock();
+		}
+	}
+	
+	/**
+	 * Get the amount of priority lanes.
+	 * 
+	 * @return The amount of lanes
+	 */
+	public int getLaneCount() {
+		return _lanes.length;
+	}
+	
+	/**
+	 * Get a lane.
+	 * 
+	 * @param index
+	 *            The index of the lane, where {@code 0} is the lowest priority
+	 * @return The lane
+	 */
+	public Lane getLane(int index) {
+		return _lanes[index];
+	}
+	
+	/**
+	 * Get the lane that dispatches with the given priority are queued in.
+	 * 
+	 * @param priority
+	 *            The priority
+	 * @return The lane
+	 */
+	public Lane getLaneFor(int priority) {
+		return _lanes[Math.max(0, Math.min(priority, _lanes.length - 1))];
+	}
+	
+	/**
+	 * Get the amount of dispatches waiting in all lanes.
+	 * 
+	 * @return The amount of queued dispatches
+	 */
+	public int getQueuedCount() {
+		_lock.lock();
+		try {
+			return _queued;
+		} finally {
+			_lock.unlock();
+		}
+	}
+	
+	/**
+	 * Get the amount of worker threads.
+	 * 
+	 * @return The amount of workers
+	 */
+	public int getWorkerCount() {
+		return _workers.length;
+	}
+	
+	/**
+	 * Is this scheduler accepting dispatches?
+	 * 
+	 * @return {@code false} if this scheduler was closed
+	 */
+	public boolean isOpen() {
+		_lock.lock();
+		try {
+			return _open;
+		} finally {
+			_lock.unlock();
+		}
+	}
+	
+	/**
+	 * Stop accepting dispatches, run the ones already queued, and wait for the worker threads to finish.
+	 */
+	@Override
+	public void close() {
+		_lock.lock();
+		try {
+			if (!_open)
+				return;
+			
+			_open = false;
+			_notEmpty.signalAll();
+			for (Lane lane : _lanes)
+				lane._notFull.signalAll();
+		} finally {
+			_lock.unlock();
+		}
+		
+		boolean interrupted = false;
+		for (Thread t : _workers) {
+			if (t == Thread.currentThread())
+				continue;
+			while (t.isAlive()) {
+				try {
+					t.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	private void work() {
+		while (true) {
+			Runnable task;
+			_lock.lock();
+			try {
+				while (_queued == 0) {
+					if (!_open)
+						return;
+					_notEmpty.awaitUninterruptibly();
+				}
+				task = take();
+			} finally {
+				_lock.unlock();
+			}
+			
+			try {
+				task.run();
+			} catch (Throwable t) {
+				_errorPolicy.reportFailure(this, t);
+			} finally {
+				// an interrupt meant for a task should not reach the next one
+				Thread.interrupted();
+			}
+		}
+	}
+	
+	/*
+	 * Take the next task. Must hold the lock, and there must be a queued task.
+	 */
+	private Runnable take() {
+		Lane lane = null;
+		if (_weights == null) {
+			for (int i = _lanes.length - 1; i >= 0 && lane == null; i--)
+				if (!_lanes[i]._queue.isEmpty())
+					lane = _lanes[i];
+		} else {
+			// smooth weighted round-robin over the non-empty lanes
+			int total = 0;
+			for (int i = 0; i < _lanes.length; i++) {
+				if (_lanes[i]._queue.isEmpty())
+					continue;
+				_credits[i] += _weights[i];
+				total += _weights[i];
+				if (lane == null || _credits[i] > _credits[lane._index])
+					lane = _lanes[i];
+			}
+			_credits[lane._index] -= total;
+		}
+		
+		Task task = lane._queue.poll();
+		lane._notFull.signal();
+		_queued--;
+		lane._executed++;
+		lane._waited += System.nanoTime() - task._queued;
+		return task._runnable;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("DispatchScheduler{");
+		sb.append(isStrict() ? "strict" : "weights=" + Arrays.toString(getWeights()));
+		for (Lane lane : _lanes)
+			sb.append(", ").append(lane);
+		return sb.append("}").toString();
+	}
+	
+	/**
+	 * A bounded queue of dispatches with the same priority. A lane is an {@link Executor} that queues tasks to be run by its scheduler's
+	 * workers, and keeps counters that can be used to monitor it.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	public final class Lane implements Executor {
+		
+		private final int _index;
+		private final ArrayDeque<Task> _queue;
+		private final Condition _notFull;
+		private volatile OverflowPolicy _policy;
+		private int _capacity, _peak;
+		private long _submitted, _rejected, _dropped, _blocked, _executed, _waited;
+		
+		Lane(int index, int capacity) {
+			_index = index;
+			_capacity = capacity;
+			_queue = new ArrayDeque<Task>();
+			_notFull = _lock.newCondition();
+			_policy = OverflowPolicy.REJECT;
+		}
+		
+		/**
+		 * Queue a task in this lane, using this lane's {@link #getOverflowPolicy() overflow policy} if it is full.
+		 * 
+		 * @param task
+		 *            The task
+		 * @throws RejectedExecutionException
+		 *             If the task was not queued because the lane is full, or the scheduler was closed
+		 */
+		@Override
+		public void execute(Runnable task) {
+			if (!offer(task, _policy))
+				throw new RejectedExecutionException(isOpen() ? "lane " + _index + " is full" : "scheduler is closed");
+		}
+		
+		/*
+		 * Queue a task, returning false if it was shed. A task dropped to make room is shed after the lock is released.
+		 */
+		boolean offer(Runnable task, OverflowPolicy policy) {
+			Task dropped = null;
+			_lock.lock();
+			try {
+				if (policy == OverflowPolicy.BLOCK && _open && _queue.size() >= _capacity) {
+					_blocked++;
+					try {
+						while (_open && _queue.size() >= _capacity)
+							_notFull.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						_rejected++;
+						return false;
+					}
+				}
+				
+				if (!_open) {
+					_rejected++;
+					return false;
+				}
+				
+				if (_queue.size() >= _capacity) {
+					if (policy != OverflowPolicy.DROP_OLDEST) {
+						_rejected++;
+						return false;
+					}
+					
+					dropped = _queue.poll();
+					_queued--;
+					_dropped++;
+				}
+				
+				_queue.add(new Task(task));
+				_submitted++;
+				_queued++;
+				_peak = Math.max(_peak, _queue.size());
+				_notEmpty.signal();
+			} finally {
+				_lock.unlock();
+			}
+			
+			if (dropped != null && dropped._runnable instanceof AsyncDispatch)
+				((AsyncDispatch) dropped._runnable).shed();
+			return true;
+		}
+		
+		/**
+		 * Set what happens to a dispatch when this lane is full. (Default: {@link OverflowPolicy#REJECT})
+		 * 
+		 * @param policy
+		 *            The policy
+		 * @return this
+		 * @see Command#withOverflowPolicy(OverflowPolicy)
+		 */
+		public Lane withOverflowPolicy(OverflowPolicy policy) {
+			if (policy == null)
+				throw new IllegalArgumentException("policy cannot be null");
+			
+			_policy = policy;
+			return this;
+		}
+		
+		/**
+		 * Get what happens to a dispatch when this lane is full.
+		 * 
+		 * @return The policy
+		 */
+		public OverflowPolicy getOverflowPolicy() {
+			return _policy;
+		}
+		
+		/**
+		 * Get the index of this lane, which is also the priority of the dispatches it holds.
+		 * 
+		 * @return The index
+		 */
+		public int getIndex() {
+			return _index;
+		}
+		
+		/**
+		 * Set how many dispatches this lane can hold.
+		 * 
+		 * @param capacity
+		 *            The capacity
+		 * @return this
+		 */
+		public Lane withCapacity(int capacity) {
+			if (capacity <= 0)
+				throw new IllegalArgumentException("capacity must be positive");
+			
+			_lock.lock();
+			try {
+				_capacity = capacity;
+			} finally {
+				_lock.unlock();
+			}
+			return this;
+		}
+		
+		/**
+		 * Get how many dispatches this lane can hold.
+		 * 
+		 * @return The capacity
+		 */
+		public int getCapacity() {
+			_lock.lock();
+			try {
+				return _capacity;
+			} finally {
+				_lock.unlock();
+			}
+		}
+		
+		/**
+		 * Get the amount of dispatches waiting in this lane.
+		 * 
+		 * @return The queue depth
+		 */
+		public int getDepth() {
+			_lock.lock();
+			try {
+				return _queue.size();
+			} finally {
+				_lock.unlock();
+			}
+		}
+		
+		/**
+		 * Get the largest amount of dispatches that have waited in this lane at once.
+		 * 
+		 * @return The peak queue depth
+		 */
+		public int getPeakDepth() {
+			_lock.lock();
+			try {
+				return _peak;
+			} finally {
+				_lock.unlock();
+			}
+		}
+		
+		/**
+		 * Get the amount of dispatches that were queued in this lane.
+		 * 
+		 * @return The amount of submitted dispatches
+		 */
+		public long getSubmittedCount() {
+			_lock.lock();
+			try {
+				return _submitted;
+			} finally {
+				_lock.unlock();
+			}
+		}
+		
+		/**
+		 * Get the amount of dispatches that could not be queued in this lane.
+		 * 
+		 * @return The amount of rejected dispatches
+		 * @see OverflowPolicy#REJECT
+		 */
+		public long getRejectedCount() {
+			_lock.lock();
+			try {
+				return _rejected;
+			} finally {
+				_lock.unlock();
+			}
+		}
+		
+		/**
+		 * Get the amount of queued dispatches that were dropped to make room for newer ones.
+		 * 
+		 * @return The amount of dropped dispatches
+		 * @see OverflowPolicy#DROP_OLDEST
+		 */
+		public long getDroppedCount() {
+			_lock.lock();
+			try {
+				return _dropped;
+			} finally {
+				_lock.unlock();
+			}
+		}
+		
+		/**
+		 * Get the amount of dispatches that had to wait for room in this lane.
+		 * 
+		 * @return The amount of blocked dispatches
+		 * @see OverflowPolicy#BLOCK
+		 */
+		public long getBlockedCount() {
+			_lock.lock();
+			try {
+				return _blocked;
+			} finally {
+				_lock.unlock();
+			}
+		}
+		
+		/**
+		 * Get the amount of dispatches that were taken from this lane by a worker.
+		 * 
+		 * @return The amount of executed dispatches
+		 */
+		public long getExecutedCount() {
+			_lock.lock();
+			try {
+				return _executed;
+			} finally {
+				_lock.unlock();
+			}
+		}
+		
+		/**
+		 * Get the average time dispatches waited in this lane before a worker took them.
+		 * 
+		 * @param unit
+		 *            The unit of the returned value
+		 * @return The average wait, or {@code 0} if no dispatches were taken yet
+		 */
+		public long getAverageWait(TimeUnit unit) {
+			_lock.lock();
+			try {
+				return _executed == 0 ? 0 : unit.convert(_waited / _executed, TimeUnit.NANOSECONDS);
+			} finally {
+				_lock.unlock();
+			}
+		}
+		
+		@Override
+		public String toString() {
+			_lock.lock();
+			try {
+				return String.format("Lane%d{depth=%d/%d, peak=%d, submitted=%d, rejected=%d, dropped=%d, blocked=%d, executed=%d}", _index,
+						_queue.size(), _capacity, _peak, _submitted, _rejected, _dropped, _blocked, _executed);
+			} finally {
+				_lock.unlock();
+			}
+		}
+		
+	}
+	
+	private static final class Task {
+		
+		private final Runnable _runnable;
+		private final long _queued;
+		
+		Task(Runnable runnable) {
+			_runnable = runnable;
+			_queued = System.nanoTime();
+		}
+		
+	}
+	
+}
@@ -0,0 +1,138 @@
+package info.malignantshadow.api.commands;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides how a {@link CommandManager} reports failed dispatches: whether the sender is told about the failure, whether exceptions
+ * thrown by handlers are kept in the {@link DispatchResult}, and how often their stack traces are printed.
+ * 
+ * <p>
+ * By default, every failure is reported to the sender and every stack trace is printed, which matches the behaviour of
+ * {@link CommandManager#dispatch(CommandSender, String)}.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ * @see CommandManager#withErrorReporting(ErrorReportingPolicy)
+ *
+ */
+public class ErrorReportingPolicy {
+	
+	private boolean _notify, _capture;
+	private int _sampleRate;
+	private AtomicLong _errors;
+	
+	/**
+	 * Construct a new ErrorReportingPolicy that notifies senders, captures exceptions and prints every stack trace.
+	 */
+	public ErrorReportingPolicy() {
+		_notify = true;
+		_capture = true;
+		_sampleRate = 1;
+		_errors = new AtomicLong();
+	}
+	
+	/**
+	 * Set whether senders are told why their command failed.
+	 * 
+	 * @param notify
+	 *            {@code true} to send failure messages to the sender
+	 * @return this
+	 */
+	public ErrorReportingPolicy thatNotifiesSender(boolean notify) {
+		_notify = notify;
+		return this;
+	}
+	
+	/**
+	 * Set whether exceptions thrown by handlers are kept in the {@link DispatchResult}.
+	 * 
+	 * @param capture
+	 *            {@code true} to keep exceptions in results
+	 * @return this
+	 * @see DispatchResult#getError()
+	 */
+	public ErrorReportingPolicy thatCapturesErrors(boolean capture) {
+		_capture = capture;
+		return this;
+	}
+	
+	/**
+	 * Set how often stack traces of exceptions thrown by handlers are printed. A rate of {@code 1} prints every stack trace, a rate of
+	 * {@code 100} prints one of every hundred, and a rate of {@code 0} prints none.
+	 * 
+	 * @param sampleRate
+	 *            The sample rate
+	 * @return this
+	 */
+	public ErrorReportingPolicy withStackTraceSampling(int sampleRate) {
+		if (sampleRate < 0)
+			throw new IllegalArgumentException("sampleRate cannot be negative");
+		
+		_sampleRate = sampleRate;
+		return this;
+	}
+	
+	/**
+	 * Are senders told why their command failed?
+	 * 
+	 * @return {@code true} if failure messages are sent to the sender
+	 */
+	public boolean notifiesSender() {
+		return _notify;
+	}
+	
+	/**
+	 * Are exceptions thrown by handlers kept in the {@link DispatchResult}?
+	 * 
+	 * @return {@code true} if exceptions are kept
+	 */
+	public boolean capturesErrors() {
+		return _capture;
+	}
+	
+	/**
+	 * Get how often stack traces are printed.
+	 * 
+	 * @return The sample rate
+	 * @see #withStackTraceSampling(int)
+	 */
+	public int getStackTraceSampling() {
+		return _sampleRate;
+	}
+	
+	/**
+	 * Report an exception thrown by a handler. By default, this prints the stack trace of the exception if it is sampled.
+	 * 
+	 * @param cmd
+	 *            The command whose handler threw the exception
+	 * @param error
+	 *            The exception
+	 */
+	public void reportError(Command cmd, Throwable error) {
+		printSampled(error);
+	}
+	
+	/**
+	 * Report an exception that was not thrown by a handler, but by something that works for a manager in the background, such as the
+	 * writer of a {@link DispatchJournal}. By default, this prints the stack trace of the exception if it is sampled, in the same way as
+	 * {@link #reportError(Command, Throwable)}.
+	 * 
+	 * @param source
+	 *            What failed
+	 * @param error
+	 *            The exception
+	 */
+	public void reportFailure(Object source, Throwable error) {
+		printSampled(error);
+	}
+	
+	private void printSampled(Throwable error) {
+		int rate = _sampleRate;
+		if (rate == 0)
+			return;
+		
+		if (rate == 1 || _errors.getAndIncrement() % rate == 0)
+			error.printStackTrace();
+	}
+	
+}
@@ -151,7 +151,7 @@ public class HelpListing {
 	 * @return A String describing the syntax of the command, in the form of "{COMMAND_NAME} {COMMAND_ARGUMENTS} {COMMAND_DESCRIPTION}"
 	 */
 	public String formatSimpleCommand(Command command) {
-		ArgumentList args = command.getArguments();
+		ArgumentList args = command.arguments();
 		Argument extra = args.getExtraArgument();
 		if (extra != null) {
 			args = new ArgumentList(args);
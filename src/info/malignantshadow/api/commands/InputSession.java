@@ -0,0 +1,452 @@
+package info.malignantshadow.api.commands;
+
+import java.util.Arrays;
+
+import info.malignantshadow.api.commands.DispatchResult.Status;
+import info.malignantshadow.api.util.arguments.Argument;
+import info.malignantshadow.api.util.arguments.ArgumentList;
+import info.malignantshadow.api.util.arguments.ParsedArgument;
+import info.malignantshadow.api.util.arguments.ParsedArguments;
+
+/**
+ * A command line that is being typed, for clients that validate or give hints on every keystroke. Instead of sending the whole line
+ * each time, the client sends {@link #edit(int, int, CharSequence) edits}, and the session keeps what it worked out for the previous
+ * version of the line: where each token starts and ends, which command the tokens resolve to, and the parsed value of each argument.
+ * 
+ * <p>
+ * An edit only re-reads the tokens it touches. The command is only resolved again if the edit changes a token that names the command
+ * or one of its sub-commands (or the token after them, which could name a sub-command), and only the arguments from the first changed
+ * token onwards are parsed again, when they are next needed. Typing at the end of a line therefore parses one argument per keystroke,
+ * however long the line is.
+ * </p>
+ * 
+ * <p>
+ * Tokens are separated by whitespace, as in {@link CommandManager#dispatch(CommandSender, String)}, except that leading whitespace is
+ * ignored. Each argument is parsed on its own, the same way it would be when the whole line is parsed. A session is meant to be used by
+ * one client at a time and is not thread-safe. The resolved command is kept between edits, so if the sub-commands of a command are
+ * {@link Command#reloadSubCommands(CommandManager) reloaded}, {@link #set(CharSequence)} should be used to start over;
+ * {@link #dispatch()} always resolves the line again.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ *
+ */
+public class InputSession {
+	
+	private static final String[] NO_INPUT = new String[0];
+	
+	private final CommandManager _manager;
+	private final CommandSender _sender;
+	private final StringBuilder _line;
+	private int _count;
+	private int[] _starts, _ends;
+	private String[] _tokens;
+	private CommandInfo _info;
+	private int _depth;
+	private ArgumentList[] _single;
+	private ParsedArgument[] _parsed;
+	private int _valid;
+	
+	/**
+	 * Construct a new InputSession with an empty line.
+	 * 
+	 * @param manager
+	 *            The manager to resolve and dispatch commands with
+	 * @param sender
+	 *            Who is typing the command
+	 */
+	public InputSession(CommandManager manager, CommandSender sender) {
+		this(manager, sender, "");
+	}
+	
+	/**
+	 * Construct a new InputSession.
+	 * 
+	 * @param manager
+	 *            The manager to resolve and dispatch commands with
+	 * @param sender
+	 *            Who is typing the command
+	 * @param line
+	 *            The line typed so far
+	 */
+	public InputSession(CommandManager manager, CommandSender sender, CharSequence line) {
+		if (manager == null)
+			throw new IllegalArgumentException("manager cannot be null");
+		
+		_manager = manager;
+		_sender = sender;
+		_line = new StringBuilder();
+		_starts = new int[8];
+		_ends = new int[8];
+		_tokens = new String[8];
+		set(line);
+	}
+	
+	/**
+	 * Replace the whole line, and start over.
+	 * 
+	 * @param line
+	 *            The new line
+	 * @return this
+	 */
+	public InputSession set(CharSequence line) {
+		if (line == null)
+			throw new IllegalArgumentException("line cannot be null");
+		
+		_line.setLength(0);
+		_line.append(line);
+		_count = 0;
+		splice(0, 0, 0, _line.length(), 0);
+		_info = null;
+		resolve();
+		return this;
+	}
+	
+	/**
+	 * Apply an edit to the line: remove {@code deleteLength} characters at {@code offset}, then insert {@code insert} there.
+	 * 
+	 * @param offset
+	 *            Where the edit starts
+	 * @param deleteLength
+	 *            The amount of characters to remove
+	 * @param insert
+	 *            The text to insert (may be empty)
+	 * @return this
+	 */
+	public InputSession edit(int offset, int deleteLength, CharSequence insert) {
+		if (offset < 0 || deleteLength < 0 || offset + deleteLength > _line.length())
+			throw new IllegalArgumentException("edit of " + deleteLength + " character(s) at " + offset + " is outside of the line (length "
+				+ _line.length() + ")");
+		if (insert == null)
+			insert = "";
+		
+		// the tokens touching the edited range, including tokens that end or start right at its edges, are the only ones that can change
+		int end = offset + deleteLength;
+		int first = firstEndingAtOrAfter(offset);
+		int last = lastStartingAtOrBefore(end);
+		int from = first <= last && _starts[first] < offset ? _starts[first] : offset;
+		int to = first <= last && _ends[last] > end ? _ends[last] : end;
+		
+		_line.replace(offset, end, insert.toString());
+		int delta = insert.length() - deleteLength;
+		int changed = splice(first, last + 1, from, to + delta, delta);
+		if (changed < 0)
+			return this; // only whitespace changed
+		
+		if (changed < _depth || (changed == _depth && _info != null && _info.getCommand().isNested()))
+			resolve();
+		_valid = Math.min(_valid, Math.max(0, changed - _depth));
+		return this;
+	}
+	
+	/*
+	 * Replace tokens [first, last) with the tokens found in [from, to) of the new line, and move the tokens after them by delta. Returns
+	 * the index of the first token that is different from before, or -1 if the tokens did not change.
+	 */
+	private int splice(int first, int last, int from, int to, int delta) {
+		int removed = last - first;
+		String[] old = Arrays.copyOfRange(_tokens, first, last);
+		
+		// read the new tokens into the end of the arrays, then move them into place
+		int found = 0;
+		int tail = _count - last;
+		int i = from;
+		while (i < to) {
+			while (i < to && isWhitespace(_line.charAt(i)))
+				i++;
+			if (i >= to)
+				break;
+			
+			int start = i;
+			while (i < to && !isWhitespace(_line.charAt(i)))
+				i++;
+			ensureCapacity(_count + found + 1);
+			_starts[_count + found] = start;
+			_ends[_count + found] = i;
+			_tokens[_count + found] = _line.substring(start, i);
+			found++;
+		}
+		
+		int[] starts = Arrays.copyOfRange(_starts, _count, _count + found);
+		int[] ends = Arrays.copyOfRange(_ends, _count, _count + found);
+		String[] tokens = Arrays.copyOfRange(_tokens, _count, _count + found);
+		ensureCapacity(_count - removed + found);
+		System.arraycopy(_starts, last, _starts, first + found, tail);
+		System.arraycopy(_ends, last, _ends, first + found, tail);
+		System.arraycopy(_tokens, last, _tokens, first + found, tail);
+		System.arraycopy(starts, 0, _starts, first, found);
+		System.arraycopy(ends, 0, _ends, first, found);
+		System.arraycopy(tokens, 0, _tokens, first, found);
+		int scratchEnd = _count + found;
+		_count += found - removed;
+		for (int j = first + found; j < _count; j++) {
+			_starts[j] += delta;
+			_ends[j] += delta;
+		}
+		Arrays.fill(_tokens, _count, scratchEnd, null);
+		
+		int same = 0;
+		while (same < found && same < removed && tokens[same].equals(old[same]))
+			same++;
+		return same == found && same == removed ? -1 : first + same;
+	}
+	
+	private void ensureCapacity(int size) {
+		if (size <= _tokens.length)
+			return;
+		
+		int capacity = Math.max(size, _tokens.length * 2);
+		_starts = Arrays.copyOf(_starts, capacity);
+		_ends = Arrays.copyOf(_ends, capacity);
+		_tokens = Arrays.copyOf(_tokens, capacity);
+	}
+	
+	/*
+	 * The same characters as \s in a regular expression.
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+	
+	private int firstEndingAtOrAfter(int offset) {
+		int low = 0, high = _count;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (_ends[mid] < offset)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	private int lastStartingAtOrBefore(int offset) {
+		int low = 0, high = _count;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (_starts[mid] <= offset)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low - 1;
+	}
+	
+	private void resolve() {
+		Command previous = _info == null ? null : _info.getCommand();
+		int previousDepth = _depth;
+		_info = _count == 0 ? null : _manager.getCommandInfo(_tokens[0], Arrays.copyOfRange(_tokens, 1, _count));
+		_depth = _info == null ? 1 : _count - _info.getArgs().length;
+		
+		Command cmd = _info == null ? null : _info.getCommand();
+		if (cmd != previous || _depth != previousDepth) {
+			int size = cmd == null ? 0 : cmd.arguments().size();
+			_single = new ArgumentList[size];
+			_parsed = new ParsedArgument[size];
+			_valid = 0;
+		}
+	}
+	
+	/*
+	 * Make sure the first n arguments are parsed.
+	 */
+	private void parse(int n) {
+		for (; _valid < n; _valid++) {
+			int index = _valid;
+			if (_single[index] == null) {
+				ArgumentList one = new ArgumentList();
+				one.add(_info.getCommand().arguments().get(index));
+				_single[index] = one;
+			}
+			
+			int token = _depth + index;
+			String[] input = token < _count ? new String[] { _tokens[token] } : NO_INPUT;
+			_parsed[index] = new ParsedArguments(_single[index], input).getArgs().get(0);
+		}
+	}
+	
+	/**
+	 * Get the line typed so far.
+	 * 
+	 * @return The line
+	 */
+	public String getLine() {
+		return _line.toString();
+	}
+	
+	/**
+	 * Get the amount of tokens in the line.
+	 * 
+	 * @return The amount of tokens
+	 */
+	public int getTokenCount() {
+		return _count;
+	}
+	
+	/**
+	 * Get a token of the line.
+	 * 
+	 * @param index
+	 *            The index of the token
+	 * @return The token
+	 */
+	public String getToken(int index) {
+		checkToken(index);
+		return _tokens[index];
+	}
+	
+	/**
+	 * Get where a token starts in the line.
+	 * 
+	 * @param index
+	 *            The index of the token
+	 * @return The offset of the first character of the token
+	 */
+	public int getTokenStart(int index) {
+		checkToken(index);
+		return _starts[index];
+	}
+	
+	/**
+	 * Get where a token ends in the line.
+	 * 
+	 * @param index
+	 *            The index of the token
+	 * @return The offset after the last character of the token
+	 */
+	public int getTokenEnd(int index) {
+		checkToken(index);
+		return _ends[index];
+	}
+	
+	private void checkToken(int index) {
+		if (index < 0 || index >= _count)
+			throw new IllegalArgumentException("token " + index + " does not exist (there are " + _count + ")");
+	}
+	
+	/**
+	 * Get the command the line resolves to.
+	 * 
+	 * @return The command, or {@code null} if the line is empty or the command does not exist
+	 */
+	public Command getCommand() {
+		return _info == null ? null : _info.getCommand();
+	}
+	
+	/**
+	 * Get the part of the line that names the command, such as {@code "cookie eat"}.
+	 * 
+	 * @return The command prefix, or {@code null} if the line is empty or the command does not exist
+	 */
+	public String getCommandPrefix() {
+		return _info == null ? null : _info.getFullCommand();
+	}
+	
+	/**
+	 * Get the amount of tokens after the command prefix, including extra arguments.
+	 * 
+	 * @return The amount of arguments given
+	 */
+	public int getArgumentCount() {
+		return _info == null ? 0 : _count - _depth;
+	}
+	
+	/**
+	 * Get the parsed value of one of the command's arguments. Arguments that were not given are parsed without input, like they are when
+	 * the command is dispatched.
+	 * 
+	 * @param index
+	 *            The index of the argument
+	 * @return The parsed argument, or {@code null} if the command was not found or has no argument at that index
+	 */
+	public ParsedArgument getParsedArgument(int index) {
+		if (_info == null || index < 0 || index >= _parsed.length)
+			return null;
+		
+		parse(index + 1);
+		return _parsed[index];
+	}
+	
+	/**
+	 * Get the argument being typed at an offset of the line, for showing hints. If the offset is in the whitespace after a token, this is
+	 * the argument the next token would be.
+	 * 
+	 * @param offset
+	 *            The offset, usually the position of the caret
+	 * @return The argument, the command's extra argument if the offset is past its arguments, or {@code null} if the offset is in the
+	 *         command prefix or the command was not found
+	 */
+	public Argument getArgumentAt(int offset) {
+		if (_info == null)
+			return null;
+		
+		int token = lastStartingAtOrBefore(offset);
+		if (token < 0 || offset > _ends[token])
+			token++;
+		
+		int index = token - _depth;
+		if (index < 0)
+			return null;
+		
+		ArgumentList args = _info.getCommand().arguments();
+		return index < args.size() ? args.get(index) : args.getExtraArgument();
+	}
+	
+	/**
+	 * Check the line the same way {@link CommandManager#dispatch(CommandSender, String)} does before it runs the handler.
+	 * 
+	 * @return {@link Status#SUCCESS SUCCESS} if the command can be dispatched; otherwise {@link Status#EMPTY EMPTY},
+	 *         {@link Status#NOT_FOUND NOT_FOUND}, {@link Status#AMBIGUOUS AMBIGUOUS},
+	 *         {@link Status#NOT_ENOUGH_ARGUMENTS NOT_ENOUGH_ARGUMENTS} or
+	 *         {@link Status#INVALID_ARGUMENT INVALID_ARGUMENT}
+	 */
+	public Status getStatus() {
+		if (_count == 0)
+			return Status.EMPTY;
+		if (_info == null)
+			return CommandManager.getAmbiguity(_manager, _tokens[0]) == null ? Status.NOT_FOUND : Status.AMBIGUOUS;
+		if (_count > _depth && CommandManager.getAmbiguity(_info.getCommand().getNestedManager(), _tokens[_depth]) != null)
+			return Status.AMBIGUOUS;
+		
+		ArgumentList args = _info.getCommand().arguments();
+		if (getArgumentCount() < args.getMinimum())
+			return Status.NOT_ENOUGH_ARGUMENTS;
+		
+		parse(_parsed.length);
+		for (ParsedArgument p : _parsed) {
+			Argument arg = p.getArgument();
+			if (arg.isRequired() && !arg.canBeNull() && p.getValue() == null)
+				return Status.INVALID_ARGUMENT;
+		}
+		return Status.SUCCESS;
+	}
+	
+	/**
+	 * Create a context for the line, parsing all of its arguments together.
+	 * 
+	 * @return The context, or {@code null} if the command was not found or not enough arguments were given
+	 * @see CommandManager#createContext(CommandSender, Command, String, String[])
+	 */
+	public CommandContext createContext() {
+		if (_info == null)
+			return null;
+		
+		return _manager.createContext(_sender, _info.getCommand(), _info.getFullCommand(), Arrays.copyOfRange(_tokens, _depth, _count));
+	}
+	
+	/**
+	 * Dispatch the line. The command is resolved again, so the result is the same as dispatching the tokens of the line with
+	 * {@link CommandManager#dispatchForResult(CommandSender, String[])}.
+	 * 
+	 * @return The result
+	 */
+	public DispatchResult dispatch() {
+		return _manager.dispatchForResult(_sender, Arrays.copyOf(_tokens, _count));
+	}
+	
+	@Override
+	public String toString() {
+		return "InputSession{line=" + _line + ", command=" + getCommandPrefix() + ", status=" + getStatus() + "}";
+	}
+	
+}
@@ -0,0 +1,127 @@
+package info.malignantshadow.api.commands;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A {@link CommandSender} that keeps every message printed to it, so they can be {@link #replay(CommandSender) replayed} to another
+ * sender later. Messages are also passed on to the sender being recorded for, if there is one, and to any senders
+ * {@link #follow(CommandSender) following} the recording.
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ *
+ */
+final class OutputRecorder extends CommandSender {
+	
+	private CommandSender _delegate;
+	private List<String> _lines;
+	private BitSet _errors;
+	private boolean _stopped;
+	private List<CommandSender> _followers;
+	
+	/**
+	 * Construct a new OutputRecorder.
+	 * 
+	 * @param delegate
+	 *            The sender to pass messages on to (may be null)
+	 */
+	OutputRecorder(CommandSender delegate) {
+		_delegate = delegate;
+		_lines = new ArrayList<String>();
+		_errors = new BitSet();
+		_followers = new CopyOnWriteArrayList<CommandSender>();
+	}
+	
+	@Override
+	public String getName() {
+		return _delegate == null ? super.getName() : _delegate.getName();
+	}
+	
+	@Override
+	public synchronized void print(String message) {
+		if (_stopped)
+			return;
+		
+		_lines.add(message);
+		if (_delegate != null)
+			_delegate.print(message);
+		for (CommandSender f : _followers)
+			f.print(message);
+	}
+	
+	@Override
+	public synchronized void printErr(String message) {
+		if (_stopped)
+			return;
+		
+		_errors.set(_lines.size());
+		_lines.add(message);
+		if (_delegate != null)
+			_delegate.printErr(message);
+		for (CommandSender f : _followers)
+			f.printErr(message);
+	}
+	
+	/**
+	 * Stop recording. Messages printed after this are dropped.
+	 */
+	synchronized void stop() {
+		_stopped = true;
+		_delegate = null;
+		_followers.clear();
+	}
+	
+	/**
+	 * Start passing messages on to another sender. Everything recorded so far is printed to the sender first.
+	 * 
+	 * @param sender
+	 *            The sender
+	 * @return {@code false} if recording has already stopped
+	 */
+	synchronized boolean follow(CommandSender sender) {
+		if (_stopped)
+			return false;
+		
+		replay(sender);
+		_followers.add(sender);
+		return true;
+	}
+	
+	/**
+	 * Stop passing messages on to a sender.
+	 * 
+	 * @param sender
+	 *            The sender
+	 */
+	void unfollow(CommandSender sender) {
+		_followers.remove(sender);
+	}
+	
+	/**
+	 * Print every recorded message to a sender, in the order they were recorded.
+	 * 
+	 * @param sender
+	 *            The sender
+	 */
+	void replay(CommandSender sender) {
+		if (sender == null)
+			return;
+		
+		String[] lines;
+		BitSet errors;
+		synchronized (this) {
+			lines = _lines.toArray(new String[_lines.size()]);
+			errors = (BitSet) _errors.clone();
+		}
+		
+		for (int i = 0; i < lines.length; i++) {
+			if (errors.get(i))
+				sender.printErr(lines[i]);
+			else
+				sender.print(lines[i]);
+		}
+	}
+	
+}
@@ -0,0 +1,30 @@
+package info.malignantshadow.api.commands;
+
+/**
+ * Decides what happens to an asynchronous dispatch when the {@link DispatchScheduler} lane it is queued in is full. A dispatch that is not
+ * run because of this policy completes with a {@link DispatchResult.Status#SHED SHED} result.
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ * @see DispatchScheduler.Lane#withOverflowPolicy(OverflowPolicy)
+ * @see Command#withOverflowPolicy(OverflowPolicy)
+ *
+ */
+public enum OverflowPolicy {
+	
+	/**
+	 * Shed the new dispatch.
+	 */
+	REJECT,
+	
+	/**
+	 * Block the dispatching thread until there is room in the lane. If the dispatching thread is interrupted while waiting, the dispatch
+	 * is shed.
+	 */
+	BLOCK,
+	
+	/**
+	 * Shed the dispatch that has waited the longest, and queue the new dispatch in its place.
+	 */
+	DROP_OLDEST;
+	
+}
@@ -0,0 +1,402 @@
+package info.malignantshadow.api.commands;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs a script of commands, one per line, through a {@link CommandManager}. Blank lines and lines starting with {@code #} are skipped.
+ * 
+ * <p>
+ * The script is memory-mapped and each line is split into its arguments straight from the mapped bytes, so the only Strings created are
+ * the arguments themselves. Scripts of any size can be run; they are mapped a window at a time.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ *
+ */
+public class ScriptRunner {
+	
+	private static final long WINDOW = 1L << 30;
+	
+	private CommandManager _manager;
+	private CommandSender _sender;
+	private boolean _stopOnFailure;
+	private ProgressListener _progress;
+	private long _progressInterval;
+	private int _maxFailures;
+	
+	/**
+	 * Construct a new ScriptRunner. Commands are sent by a default {@link CommandSender}.
+	 * 
+	 * @param manager
+	 *            The manager to dispatch commands to
+	 */
+	public ScriptRunner(CommandManager manager) {
+		_manager = manager;
+		_sender = new CommandSender();
+		_progressInterval = 10000;
+		_maxFailures = 100;
+	}
+	
+	/**
+	 * Set who sends the commands in the script.
+	 * 
+	 * @param sender
+	 *            The sender
+	 * @return this
+	 */
+	public ScriptRunner withSender(CommandSender sender) {
+		_sender = sender;
+		return this;
+	}
+	
+	/**
+	 * Set whether the script stops at the first command that does not dispatch successfully.
+	 * 
+	 * @param stop
+	 *            {@code true} to stop on the first failure
+	 * @return this
+	 */
+	public ScriptRunner thatStopsOnFailure(boolean stop) {
+		_stopOnFailure = stop;
+		return this;
+	}
+	
+	/**
+	 * Set how many of the commands that fail are described in the {@link Result}. Failures after that are only counted, so a script with
+	 * many failing lines does not fill up memory. (Default: 100)
+	 * 
+	 * @param maxFailures
+	 *            The maximum amount of failures to keep
+	 * @return this
+	 */
+	public ScriptRunner withMaxFailures(int maxFailures) {
+		if (maxFailures < 0)
+			throw new IllegalArgumentException("maxFailures cannot be negative");
+		
+		_maxFailures = maxFailures;
+		return this;
+	}
+	
+	/**
+	 * Set a listener to be told about the progress of the script.
+	 * 
+	 * @param listener
+	 *            The listener
+	 * @param interval
+	 *            How many commands to run between each report
+	 * @return this
+	 */
+	public ScriptRunner withProgressListener(ProgressListener listener, long interval) {
+		if (interval <= 0)
+			throw new IllegalArgumentException("interval must be positive");
+		
+		_progress = listener;
+		_progressInterval = interval;
+		return this;
+	}
+	
+	/**
+	 * Run a script.
+	 * 
+	 * @param script
+	 *            The script file
+	 * @return The outcome of the script
+	 * @throws IOException
+	 *             If the script could not be read
+	 */
+	public Result run(Path script) throws IOException {
+		Result result = new Result(_maxFailures);
+		try (FileChannel channel = FileChannel.open(script, StandardOpenOption.READ)) {
+			long size = channel.size();
+			Tokenizer tokenizer = new Tokenizer();
+			long position = 0;
+			while (position < size) {
+				long length = Math.min(WINDOW, size - position);
+				MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				boolean last = position + length == size;
+				
+				int start = 0;
+				int limit = buf.limit();
+				for (int i = 0; i <= limit; i++) {
+					if (i < limit && buf.get(i) != '\n')
+						continue;
+					if (i == limit && (!last || start == limit))
+						break; // the line continues in the next window, or there is no last line
+					
+					result._lines++;
+					String[] args = tokenizer.tokenize(buf, start, i);
+					start = i + 1;
+					if (args == null)
+						continue;
+					
+					DispatchResult r = _manager.dispatchForResult(_sender, args);
+					result.add(result._lines, r);
+					if (_progress != null && result._count % _progressInterval == 0)
+						_progress.progress(result._count, result._lines, position + Math.min(start, limit), size);
+					if (_stopOnFailure && !r.isSuccess()) {
+						result._stopped = true;
+						return result;
+					}
+				}
+				
+				if (start == 0 && !last)
+					throw new IOException("line " + (result._lines + 1) + " is too long");
+				position += start;
+			}
+			
+			if (_progress != null)
+				_progress.progress(result._count, result._lines, size, size);
+		}
+		return result;
+	}
+	
+	/*
+	 * Splits a line of a mapped script by whitespace, in the same way as String.split("\\s+"), without creating a String for the line.
+	 */
+	private static final class Tokenizer {
+		
+		private byte[] _bytes = new byte[256];
+		private String[] _tokens = new String[16];
+		
+		/*
+		 * Returns the arguments of the line, or null if the line is blank or a comment.
+		 */
+		String[] tokenize(MappedByteBuffer buf, int from, int to) {
+			int count = 0;
+			int i = from;
+			while (true) {
+				while (i < to && isWhitespace(buf.get(i)))
+					i++;
+				if (i == to)
+					break;
+				if (count == 0 && buf.get(i) == '#')
+					return null;
+				
+				int start = i;
+				boolean ascii = true;
+				byte b;
+				while (i < to && !isWhitespace(b = buf.get(i))) {
+					ascii &= b >= 0;
+					i++;
+				}
+				
+				int length = i - start;
+				if (length > _bytes.length)
+					_bytes = new byte[Math.max(length, _bytes.length * 2)];
+				buf.get(start, _bytes, 0, length);
+				if (count == _tokens.length)
+					_tokens = Arrays.copyOf(_tokens, count * 2);
+				_tokens[count++] = new String(_bytes, 0, length, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+			}
+			
+			return count == 0 ? null : Arrays.copyOf(_tokens, count);
+		}
+		
+		private static boolean isWhitespace(byte b) {
+			return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+		}
+		
+	}
+	
+	/**
+	 * Told about the progress of a script while it is running.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	@FunctionalInterface
+	public static interface ProgressListener {
+		
+		/**
+		 * Report the progress of a script.
+		 * 
+		 * @param commands
+		 *            The amount of commands run so far
+		 * @param lines
+		 *            The amount of lines read so far, including blank lines and comments
+		 * @param bytes
+		 *            The amount of bytes read so far
+		 * @param totalBytes
+		 *            The size of the script
+		 */
+		public void progress(long commands, long lines, long bytes, long totalBytes);
+		
+	}
+	
+	/**
+	 * The outcome of running a script: how many commands were run, how many ended with each {@link DispatchResult.Status status}, and a
+	 * {@link Failure} for each of the first {@link ScriptRunner#withMaxFailures(int) few} commands that failed. Nothing is kept for
+	 * commands that succeeded, so the outcome stays small however long the script is.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	public static class Result {
+		
+		private static final DispatchResult.Status[] STATUSES = DispatchResult.Status.values();
+		
+		private long _lines;
+		private long _count;
+		private long _failureCount;
+		private long[] _statusCounts;
+		private int _maxFailures;
+		private List<Failure> _failures;
+		private boolean _stopped;
+		
+		Result(int maxFailures) {
+			_statusCounts = new long[STATUSES.length];
+			_maxFailures = maxFailures;
+			_failures = new ArrayList<Failure>();
+		}
+		
+		void add(long line, DispatchResult result) {
+			_count++;
+			_statusCounts[result.getStatus().ordinal()]++;
+			if (result.isSuccess())
+				return;
+			
+			_failureCount++;
+			if (_failures.size() < _maxFailures)
+				_failures.add(new Failure(line, result));
+		}
+		
+		/**
+		 * Get the amount of lines that were read, including blank lines and comments.
+		 * 
+		 * @return The amount of lines
+		 */
+		public long getLineCount() {
+			return _lines;
+		}
+		
+		/**
+		 * Get the amount of commands that were run.
+		 * 
+		 * @return The amount of commands
+		 */
+		public long getCommandCount() {
+			return _count;
+		}
+		
+		/**
+		 * Get the amount of commands that ended with a status.
+		 * 
+		 * @param status
+		 *            The status
+		 * @return The amount of commands
+		 */
+		public long getStatusCount(DispatchResult.Status status) {
+			return _statusCounts[status.ordinal()];
+		}
+		
+		/**
+		 * Get the amount of commands that did not dispatch successfully, including those that are not in {@link #getFailures()}.
+		 * 
+		 * @return The amount of failures
+		 */
+		public long getFailureCount() {
+			return _failureCount;
+		}
+		
+		/**
+		 * Get the first commands that did not dispatch successfully, in the order they were run.
+		 * 
+		 * @return The failures
+		 * @see ScriptRunner#withMaxFailures(int)
+		 */
+		public List<Failure> getFailures() {
+			return Collections.unmodifiableList(_failures);
+		}
+		
+		/**
+		 * Did every command dispatch successfully?
+		 * 
+		 * @return {@code true} if there were no failures
+		 */
+		public boolean isSuccess() {
+			return _failureCount == 0;
+		}
+		
+		/**
+		 * Did the script stop early because a command failed?
+		 * 
+		 * @return {@code true} if the script was stopped
+		 * @see ScriptRunner#thatStopsOnFailure(boolean)
+		 */
+		public boolean wasStopped() {
+			return _stopped;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("ScriptRunner.Result{lines=%d, commands=%d, failures=%d%s}", _lines, _count, _failureCount, _stopped ? ", stopped" : "");
+		}
+		
+	}
+	
+	/**
+	 * A command in a script that did not dispatch successfully. Only the line, the status and the message are kept, not the
+	 * {@link DispatchResult} (or the context and arguments it holds on to).
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	public static class Failure {
+		
+		private static final int MAX_MESSAGE = 200;
+		
+		private final long _line;
+		private final DispatchResult.Status _status;
+		private final String _message;
+		
+		Failure(long line, DispatchResult result) {
+			String message = result.getMessage();
+			_line = line;
+			_status = result.getStatus();
+			_message = message == null || message.length() <= MAX_MESSAGE ? message : message.substring(0, MAX_MESSAGE - 3) + "...";
+		}
+		
+		/**
+		 * Get the line number (starting at 1) of the command.
+		 * 
+		 * @return The line number
+		 */
+		public long getLine() {
+			return _line;
+		}
+		
+		/**
+		 * Get the status the command ended with.
+		 * 
+		 * @return The status
+		 */
+		public DispatchResult.Status getStatus() {
+			return _status;
+		}
+		
+		/**
+		 * Get the message that describes the failure, shortened to at most 200 characters.
+		 * 
+		 * @return The message, or {@code null} if the status has none
+		 */
+		public String getMessage() {
+			return _message;
+		}
+		
+		@Override
+		public String toString() {
+			return "line " + _line + ": " + _status + (_message == null ? "" : " - " + _message);
+		}
+		
+	}
+	
+}
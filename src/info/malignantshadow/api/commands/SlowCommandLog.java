@@ -0,0 +1,366 @@
+package info.malignantshadow.api.commands;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, in-memory log of dispatches that took longer than a threshold. Once the log is full, the oldest entries are overwritten.
+ * 
+ * <p>
+ * A dispatch that finishes under the threshold only costs two {@link System#nanoTime()} reads, when it starts and when it finishes, and
+ * a comparison. How long each {@link Phase} took is only timed for the dispatches picked by {@link #withPhaseSampling(int)}. The
+ * threshold can be overridden for a single command with {@link Command#withSlowThreshold(long, TimeUnit)}.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ * @see CommandManager#withSlowCommandLog(SlowCommandLog)
+ *
+ */
+public class SlowCommandLog {
+	
+	private long _threshold;
+	private int _sampleRate, _phaseRate;
+	private AtomicReferenceArray<Entry> _entries;
+	private AtomicLong _next, _slow;
+	
+	/**
+	 * Construct a new SlowCommandLog.
+	 * 
+	 * @param capacity
+	 *            The maximum amount of entries to keep
+	 * @param threshold
+	 *            How long a dispatch must take to be logged
+	 * @param unit
+	 *            The unit of {@code threshold}
+	 */
+	public SlowCommandLog(int capacity, long threshold, TimeUnit unit) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+		
+		_entries = new AtomicReferenceArray<Entry>(capacity);
+		_next = new AtomicLong();
+		_slow = new AtomicLong();
+		_sampleRate = 1;
+		withThreshold(threshold, unit);
+	}
+	
+	/**
+	 * Set how long a dispatch must take to be logged, unless its command has its own threshold.
+	 * 
+	 * @param threshold
+	 *            The threshold
+	 * @param unit
+	 *            The unit of {@code threshold}
+	 * @return this
+	 */
+	public SlowCommandLog withThreshold(long threshold, TimeUnit unit) {
+		if (threshold < 0)
+			throw new IllegalArgumentException("threshold cannot be negative");
+		
+		_threshold = unit.toNanos(threshold);
+		return this;
+	}
+	
+	/**
+	 * Get how long a dispatch must take to be logged, unless its command has its own threshold.
+	 * 
+	 * @param unit
+	 *            The unit of the returned value
+	 * @return The threshold
+	 */
+	public long getThreshold(TimeUnit unit) {
+		return unit.convert(_threshold, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Set how often the {@link CommandContext#toString() context} of a slow dispatch is captured. A rate of {@code 1} captures every
+	 * context, a rate of {@code 10} captures one of every ten, and a rate of {@code 0} captures none.
+	 * 
+	 * @param sampleRate
+	 *            The sample rate
+	 * @return this
+	 */
+	public SlowCommandLog withContextSampling(int sampleRate) {
+		if (sampleRate < 0)
+			throw new IllegalArgumentException("sampleRate cannot be negative");
+		
+		_sampleRate = sampleRate;
+		return this;
+	}
+	
+	/**
+	 * Set how often the {@link Phase phases} of a dispatch are timed, which takes a {@link System#nanoTime()} read after each phase. A rate
+	 * of {@code 1} times the phases of every dispatch, a rate of {@code 100} those of about one in a hundred, picked at random, and a rate
+	 * of {@code 0} (the default) those of none, so slow dispatches are logged with their total duration only.
+	 * 
+	 * @param sampleRate
+	 *            The sample rate
+	 * @return this
+	 */
+	public SlowCommandLog withPhaseSampling(int sampleRate) {
+		if (sampleRate < 0)
+			throw new IllegalArgumentException("sampleRate cannot be negative");
+		
+		_phaseRate = sampleRate;
+		return this;
+	}
+	
+	/**
+	 * Get how often the phases of a dispatch are timed.
+	 * 
+	 * @return The sample rate
+	 * @see #withPhaseSampling(int)
+	 */
+	public int getPhaseSampling() {
+		return _phaseRate;
+	}
+	
+	/*
+	 * Should the phases of the next dispatch be timed? Random rather than counted, so dispatching threads do not share a counter.
+	 */
+	boolean samplePhases() {
+		int rate = _phaseRate;
+		return rate == 1 || (rate != 0 && ThreadLocalRandom.current().nextInt(rate) == 0);
+	}
+	
+	/**
+	 * Get the maximum amount of entries this log keeps.
+	 * 
+	 * @return The capacity
+	 */
+	public int getCapacity() {
+		return _entries.length();
+	}
+	
+	/**
+	 * Get the amount of slow dispatches that have been logged, including those that have since been overwritten.
+	 * 
+	 * @return The amount of slow dispatches
+	 */
+	public long getSlowCount() {
+		return _slow.get();
+	}
+	
+	/*
+	 * Log the result if it was slow. Called by CommandManager once a result is complete.
+	 */
+	void record(DispatchResult result) {
+		long elapsed = result.getElapsed();
+		Command cmd = result.getCommand();
+		long threshold = cmd == null ? 0 : cmd.getSlowThreshold(TimeUnit.NANOSECONDS);
+		if (elapsed < (threshold == 0 ? _threshold : threshold))
+			return;
+		
+		long n = _slow.getAndIncrement();
+		int rate = _sampleRate;
+		CommandContext context = result.getContext();
+		String contextString = context != null && rate != 0 && n % rate == 0 ? context.toString() : null;
+		Entry entry = new Entry(result, contextString, Thread.currentThread().getName());
+		_entries.set((int) (_next.getAndIncrement() % _entries.length()), entry);
+	}
+	
+	/**
+	 * Get the entries currently in this log, from oldest to newest.
+	 * 
+	 * @return The entries
+	 */
+	public List<Entry> getEntries() {
+		int capacity = _entries.length();
+		long next = _next.get();
+		long first = Math.max(0, next - capacity);
+		List<Entry> entries = new ArrayList<Entry>((int) (next - first));
+		for (long i = first; i < next; i++) {
+			Entry e = _entries.get((int) (i % capacity));
+			if (e != null)
+				entries.add(e);
+		}
+		return entries;
+	}
+	
+	/**
+	 * Remove all entries from this log.
+	 */
+	public void clear() {
+		for (int i = 0; i < _entries.length(); i++)
+			_entries.set(i, null);
+	}
+	
+	/**
+	 * Print every entry in this log, from oldest to newest.
+	 * 
+	 * @param out
+	 *            Where to print the entries
+	 */
+	public void dump(PrintStream out) {
+		for (Entry e : getEntries())
+			out.println(e);
+	}
+	
+	/**
+	 * The phases of a dispatch that are timed.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	public static enum Phase {
+		
+		/**
+		 * Splitting the command string into its name and arguments.
+		 */
+		SPLIT,
+		
+		/**
+		 * Finding the command (and sub-command) to run.
+		 */
+		RESOLVE,
+		
+		/**
+		 * Creating the command context and parsing its arguments.
+		 */
+		PARSE,
+		
+		/**
+		 * Checking that required arguments were given valid input.
+		 */
+		VALIDATE,
+		
+		/**
+		 * Running the command's handler, interceptors and dispatch hooks.
+		 */
+		HANDLE;
+		
+	}
+	
+	/**
+	 * A dispatch that was slow.
+	 * 
+	 * @author MalignantShadow (Caleb Downs)
+	 *
+	 */
+	public static class Entry {
+		
+		private long _time, _elapsed;
+		private long[] _phases;
+		private String _cmd, _sender, _context, _thread;
+		private DispatchResult.Status _status;
+		
+		Entry(DispatchResult result, String context, String thread) {
+			_time = System.currentTimeMillis();
+			_elapsed = result.getElapsed();
+			_phases = new long[Phase.values().length];
+			for (Phase p : Phase.values())
+				_phases[p.ordinal()] = result.getPhaseTime(p);
+			_cmd = result.getCommandPrefix();
+			CommandSender sender = result.getSender();
+			_sender = sender == null ? null : sender.getName();
+			_context = context;
+			_thread = thread;
+			_status = result.getStatus();
+		}
+		
+		/**
+		 * Get when the dispatch finished.
+		 * 
+		 * @return The time, in milliseconds since the epoch
+		 */
+		public long getTime() {
+			return _time;
+		}
+		
+		/**
+		 * Get how long the whole dispatch took.
+		 * 
+		 * @param unit
+		 *            The unit of the returned value
+		 * @return The duration
+		 */
+		public long getDuration(TimeUnit unit) {
+			return unit.convert(_elapsed, TimeUnit.NANOSECONDS);
+		}
+		
+		/**
+		 * Get how long a single phase of the dispatch took.
+		 * 
+		 * @param phase
+		 *            The phase
+		 * @param unit
+		 *            The unit of the returned value
+		 * @return The duration, or {@code -1} if the dispatch did not reach (or finish) the phase, or its phases were not
+		 *         {@link SlowCommandLog#withPhaseSampling(int) timed}
+		 */
+		public long getPhaseTime(Phase phase, TimeUnit unit) {
+			long time = _phases[phase.ordinal()];
+			return time < 0 ? -1 : unit.convert(time, TimeUnit.NANOSECONDS);
+		}
+		
+		/**
+		 * Get the command that was dispatched.
+		 * 
+		 * @return The command prefix, or {@code null} if no command was found
+		 */
+		public String getCommandPrefix() {
+			return _cmd;
+		}
+		
+		/**
+		 * Get the name of who sent the command.
+		 * 
+		 * @return The sender's name
+		 * @see CommandSender#getName()
+		 */
+		public String getSender() {
+			return _sender;
+		}
+		
+		/**
+		 * Get the {@link CommandContext#toString() context} of the dispatch.
+		 * 
+		 * @return The context, or {@code null} if it was not created or not sampled
+		 */
+		public String getContext() {
+			return _context;
+		}
+		
+		/**
+		 * Get the name of the thread the dispatch finished on.
+		 * 
+		 * @return The thread's name
+		 */
+		public String getThread() {
+			return _thread;
+		}
+		
+		/**
+		 * Get the outcome of the dispatch.
+		 * 
+		 * @return The status
+		 */
+		public DispatchResult.Status getStatus() {
+			return _status;
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder phases = new StringBuilder();
+			for (Phase p : Phase.values()) {
+				long time = getPhaseTime(p, TimeUnit.MICROSECONDS);
+				if (time >= 0)
+					phases.append(phases.length() == 0 ? "" : ", ").append(p.name().toLowerCase()).append('=').append(time).append("us");
+			}
+			
+			String format = "[%s] %s '%s' (%s) took %d ms on %s by %s%s";
+			String date = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(_time));
+			return String.format(format, date, _status, _cmd, _context == null ? "-" : _context, getDuration(TimeUnit.MILLISECONDS), _thread, _sender,
+				phases.length() == 0 ? "" : " {" + phases + "}");
+		}
+		
+	}
+	
+}
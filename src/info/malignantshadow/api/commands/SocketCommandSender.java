@@ -0,0 +1,98 @@
+package info.malignantshadow.api.commands;
+
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link CommandSender} for a connection to a {@link CommandServer}. Messages are queued and written to the socket by the server's
+ * selector thread, so printing never blocks the handler.
+ * 
+ * <p>
+ * Every line written to the client starts with a marker: {@code "+ "} for messages, {@code "- "} for errors, and {@code "= "} followed
+ * by the {@link DispatchResult.Status status} once a command has finished.
+ * </p>
+ * 
+ * <p>
+ * Each command dispatched on a connection gets a sender of its own. Once the status of the command has been written, the messages its
+ * sender prints are dropped, so a handler that is still running after its command {@link DispatchResult.Status#TIMED_OUT timed out}
+ * cannot write into the response to the next command. The senders of one connection are equal to each other.
+ * </p>
+ * 
+ * @author MalignantShadow (Caleb Downs)
+ *
+ */
+public class SocketCommandSender extends CommandSender {
+	
+	private CommandServer.Connection _conn;
+	private String _name;
+	private long _turn;
+	
+	/*
+	 * The sender of the command with the given turn, counting from 0, on a connection.
+	 */
+	SocketCommandSender(CommandServer.Connection conn, String name, long turn) {
+		_conn = conn;
+		_name = name;
+		_turn = turn;
+	}
+	
+	static String name(SocketAddress remote) {
+		return remote == null || remote.toString().isEmpty() ? "socket" : remote.toString();
+	}
+	
+	/**
+	 * Get the name of this sender. This is the address of the remote end of the connection.
+	 * 
+	 * @return The name of this sender
+	 */
+	@Override
+	public String getName() {
+		return _name;
+	}
+	
+	/**
+	 * Is the connection to this sender still open?
+	 * 
+	 * @return {@code true} if messages can still be sent
+	 */
+	public boolean isConnected() {
+		return !_conn.isClosed();
+	}
+	
+	@Override
+	public void print(String message) {
+		_conn.send(frame('+', message), _turn);
+	}
+	
+	@Override
+	public void printErr(String message) {
+		_conn.send(frame('-', message), _turn);
+	}
+	
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(_conn);
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof SocketCommandSender && ((SocketCommandSender) obj)._conn == _conn;
+	}
+	
+	/*
+	 * Prefix every line of the message with the marker.
+	 */
+	static byte[] frame(char marker, String message) {
+		StringBuilder sb = new StringBuilder(message.length() + 4);
+		int start = 0;
+		while (true) {
+			int end = message.indexOf('\n', start);
+			sb.append(marker).append(' ').append(message, start, end == -1 ? message.length() : end).append('\n');
+			if (end == -1)
+				break;
+			start = end + 1;
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+}